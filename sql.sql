@@ -1,20 +1,36 @@
+-- 完整的建表语句，便于新项目直接执行。已有的表按trigger-task/src/main/resources/db/trigger-task下的版本化脚本升级，可直接交给Flyway执行
 CREATE TABLE `trigger_task` (
                                 `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
                                 `task_type` varchar(64) NOT NULL COMMENT '触发任务类型',
-                                `task_status` tinyint(4) NOT NULL DEFAULT '1' COMMENT '任务状态 1-未结束；2-结束',
+                                `task_status` tinyint(4) NOT NULL DEFAULT '1' COMMENT '任务状态 1-未结束；2-结束；3-死信',
                                 `trigger_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '触发开始时间',
                                 `remark` varchar(255) DEFAULT '' COMMENT '备注',
                                 `mdc` varchar(1500) DEFAULT NULL COMMENT 'MDC日志信息',
                                 `fail_msg` varchar(1000) DEFAULT '' COMMENT '错误信息',
                                 `last_fail_time` datetime DEFAULT NULL COMMENT '上次失败时间',
                                 `fail_count` int(11) NOT NULL DEFAULT '0' COMMENT '错误次数',
+                                `next_retry_time` datetime DEFAULT NULL COMMENT '下次重试时间',
                                 `lock_key` varchar(64) DEFAULT '' COMMENT '分布式锁key',
                                 `param1` varchar(1000) DEFAULT '' COMMENT '参数1',
                                 `param2` varchar(1000) DEFAULT '' COMMENT '参数2',
                                 `param3` varchar(1000) DEFAULT '' COMMENT '参数3',
                                 `param4` varchar(1000) DEFAULT '' COMMENT '参数4',
                                 `param5` varchar(1000) DEFAULT '' COMMENT '参数5',
+                                `payload` mediumblob DEFAULT NULL COMMENT '二进制参数',
+                                `lease_owner` varchar(128) DEFAULT NULL COMMENT '认领模式下的租约持有者',
+                                `lease_expire_time` datetime DEFAULT NULL COMMENT '认领模式下的租约到期时间',
+                                `priority` tinyint(4) NOT NULL DEFAULT '0' COMMENT '优先级 数值越大越优先',
+                                `dedup_key` varchar(128) DEFAULT NULL COMMENT '合并key',
                                 `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
                                 `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '修改时间',
-                                PRIMARY KEY (`id`)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='触发任务表';
\ No newline at end of file
+                                PRIMARY KEY (`id`),
+                                KEY `idx_status_trigger_time` (`task_status`, `trigger_time`, `id`, `next_retry_time`),
+                                KEY `idx_status_priority_trigger_time` (`task_status`, `priority`, `trigger_time`, `id`),
+                                UNIQUE KEY `uk_task_type_dedup_key` (`task_type`, `dedup_key`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='触发任务表';
+
+-- 归档表，开启trigger-task.purge.archive-enabled时使用。表结构需与trigger_task保持一致，trigger_task加列时同步加列
+CREATE TABLE `trigger_task_history` LIKE `trigger_task`;
+
+-- 路由表，配置trigger-task.routing.task-types时使用。表结构需与trigger_task保持一致，分表时按 表名_0 ~ 表名_(shards-1) 逐个创建，例如:
+-- CREATE TABLE `trigger_task_order_0` LIKE `trigger_task`;
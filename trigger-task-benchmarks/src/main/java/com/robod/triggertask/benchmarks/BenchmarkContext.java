@@ -0,0 +1,147 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.config.TriggerTaskAutoConfiguration;
+import com.zaxxer.hikari.HikariDataSource;
+import org.redisson.api.RedissonClient;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName BenchmarkContext
+ * @Description 压测用的Spring容器：H2内存库 + RedissonClient替身 + TriggerTask自动配置。默认每次创建使用独立的数据库，
+ * 指定benchmark.datasource.url为另一个容器的{@link #getDatasourceUrl()}时共享同一个数据库，用来模拟多个实例；共享数据库的容器也共享同一个RedissonClient替身
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+public final class BenchmarkContext implements AutoCloseable {
+
+    private static final AtomicInteger DATABASE_INDEX = new AtomicInteger();
+
+    /**
+     * 数据库url -> RedissonClient替身，同一个数据库上的多个实例共享分布式锁
+     */
+    private static final Map<String, RedissonClient> REDISSON_CLIENTS = new ConcurrentHashMap<>();
+
+    private final AnnotationConfigApplicationContext applicationContext;
+
+    private BenchmarkContext(AnnotationConfigApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * @param properties    trigger-task等配置项，例如trigger-task.dispatch-after-commit=false
+     * @param configClasses 额外注册的配置类，例如执行器和处理器
+     */
+    public static BenchmarkContext start(Map<String, Object> properties, Class<?>... configClasses) {
+        return start(properties, Collections.emptyMap(), configClasses);
+    }
+
+    /**
+     * @param singletons 按名称注册的现成对象，例如按任务类型命名的处理器
+     */
+    @SuppressWarnings("unchecked")
+    public static BenchmarkContext start(Map<String, Object> properties, Map<String, ?> singletons, Class<?>... configClasses) {
+        Map<String, Object> source = new HashMap<>(properties);
+        source.putIfAbsent("spring.application.name", "trigger-task-benchmarks");
+        // 不开MODE=MySQL，H2的MySQL兼容模式在多连接并发插入和更新时会偶发自增主键冲突
+        source.putIfAbsent("benchmark.datasource.url", "jdbc:h2:mem:trigger_task_" + DATABASE_INDEX.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        AnnotationConfigApplicationContext applicationContext = new AnnotationConfigApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", source));
+        applicationContext.register(InfrastructureConfiguration.class);
+        singletons.forEach((name, bean) -> applicationContext.registerBean(name, (Class<Object>) bean.getClass(), () -> bean));
+        if (configClasses.length > 0) {
+            applicationContext.register(configClasses);
+        }
+        applicationContext.refresh();
+        return new BenchmarkContext(applicationContext);
+    }
+
+    public <B> B getBean(Class<B> type) {
+        return applicationContext.getBean(type);
+    }
+
+    public String getDatasourceUrl() {
+        return applicationContext.getEnvironment().getRequiredProperty("benchmark.datasource.url");
+    }
+
+    public JdbcTemplate getJdbcTemplate() {
+        return getBean(JdbcTemplate.class);
+    }
+
+    /**
+     * 清空任务表，自增id从1重新开始
+     */
+    public void truncate() {
+        getJdbcTemplate().execute("truncate table trigger_task restart identity");
+    }
+
+    @Override
+    public void close() {
+        applicationContext.close();
+    }
+
+    @Configuration
+    @Import(TriggerTaskAutoConfiguration.class)
+    static class InfrastructureConfiguration {
+
+        @Bean
+        public StatementCountingDataSource statementCountingDataSource(Environment environment) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl(environment.getRequiredProperty("benchmark.datasource.url"));
+            dataSource.setUsername("sa");
+            dataSource.setMaximumPoolSize(environment.getProperty("benchmark.datasource.pool-size", Integer.class, 32));
+            new ResourceDatabasePopulator(new ClassPathResource("schema-h2.sql")).execute(dataSource);
+            return new StatementCountingDataSource(dataSource);
+        }
+
+        /**
+         * benchmark.datasource.count-statements=true时统计SQL执行次数，JMH压测默认不统计，避免代理本身的开销算进结果
+         */
+        @Bean(destroyMethod = "close")
+        public DataSource dataSource(StatementCountingDataSource statementCountingDataSource, Environment environment) {
+            if (environment.getProperty("benchmark.datasource.count-statements", Boolean.class, false)) {
+                return statementCountingDataSource.getDataSource();
+            }
+            return statementCountingDataSource.getTarget();
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        public DataSourceTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(DataSourceTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public RedissonClient redissonClient(Environment environment) {
+            return REDISSON_CLIENTS.computeIfAbsent(environment.getRequiredProperty("benchmark.datasource.url"), url -> RedissonClientStandIn.create());
+        }
+
+    }
+
+}
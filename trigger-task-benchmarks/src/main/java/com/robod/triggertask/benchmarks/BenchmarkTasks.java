@@ -0,0 +1,38 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @ClassName BenchmarkTasks
+ * @Description 构造压测用的任务，参数长度接近业务中常见的取值
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+public final class BenchmarkTasks {
+
+    public static final String TASK_TYPE = "benchmark";
+
+    private BenchmarkTasks() {
+    }
+
+    public static TriggerTaskBaseEntity newTask(String taskType, int index) {
+        TriggerTaskBaseEntity task = new TriggerTaskBaseEntity();
+        task.setTaskType(taskType);
+        task.setParam1(String.valueOf(index));
+        task.setParam2("student-" + index);
+        task.setParam3("{\"orderId\":" + index + ",\"amount\":\"128.00\",\"channel\":\"benchmark\"}");
+        return task;
+    }
+
+    public static List<TriggerTaskBaseEntity> newTasks(String taskType, int size) {
+        List<TriggerTaskBaseEntity> taskList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            taskList.add(newTask(taskType, i));
+        }
+        return taskList;
+    }
+
+}
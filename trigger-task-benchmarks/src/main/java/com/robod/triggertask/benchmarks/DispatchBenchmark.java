@@ -0,0 +1,114 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.executor.TriggerTaskExecutor;
+import com.robod.triggertask.handler.TriggerTaskHandler;
+import com.robod.triggertask.storage.TriggerTaskStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @ClassName DispatchBenchmark
+ * @Description 执行器分发的开销：保存一批任务后，事务提交后立即执行的路径按id加载、提交线程池、执行空处理器并回写状态，直到全部执行完。
+ * 结果按单个任务折算，处理器不做任何事，测到的就是框架自身的开销
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static final int BATCH_SIZE = 200;
+
+    private BenchmarkContext context;
+
+    private TriggerTaskStorage<TriggerTaskBaseEntity> storage;
+
+    private LatchTaskHandler handler;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        context = BenchmarkContext.start(Collections.emptyMap(), DispatchConfiguration.class);
+        storage = context.getBean(TriggerTaskStorage.class);
+        handler = context.getBean(LatchTaskHandler.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() {
+        context.truncate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void saveAndExecute() throws Exception {
+        CountDownLatch latch = handler.reset(BATCH_SIZE);
+        storage.saveBatch(BenchmarkTasks.newTasks(BenchmarkTasks.TASK_TYPE, BATCH_SIZE));
+        if (!latch.await(30, TimeUnit.SECONDS)) {
+            throw new TimeoutException("任务没有在30秒内执行完, 剩余: " + latch.getCount());
+        }
+    }
+
+    @Configuration
+    static class DispatchConfiguration {
+
+        @Bean
+        @SuppressWarnings("unchecked")
+        public <T extends TriggerTaskBaseEntity> TriggerTaskExecutor<T> triggerTaskExecutor() {
+            return (TriggerTaskExecutor<T>) new TriggerTaskExecutor<>(TriggerTaskBaseEntity.class);
+        }
+
+        @Bean(BenchmarkTasks.TASK_TYPE)
+        public LatchTaskHandler latchTaskHandler() {
+            return new LatchTaskHandler();
+        }
+
+    }
+
+    /**
+     * 每执行一个任务计数减一，不做其他事
+     */
+    static class LatchTaskHandler implements TriggerTaskHandler<TriggerTaskBaseEntity> {
+
+        private volatile CountDownLatch latch = new CountDownLatch(0);
+
+        CountDownLatch reset(int count) {
+            latch = new CountDownLatch(count);
+            return latch;
+        }
+
+        @Override
+        public void handleTask(TriggerTaskBaseEntity task) {
+            latch.countDown();
+        }
+
+    }
+
+}
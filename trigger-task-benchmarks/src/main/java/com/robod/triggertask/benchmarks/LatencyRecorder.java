@@ -0,0 +1,47 @@
+package com.robod.triggertask.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName LatencyRecorder
+ * @Description 记录延迟样本并计算分位数。容量固定为任务总数，超出容量的样本直接丢弃
+ * @Author Robod
+ * @Date 2025/01/22 10:00
+ */
+public final class LatencyRecorder {
+
+    private final long[] samples;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    public LatencyRecorder(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    public void record(long millis) {
+        int index = size.getAndIncrement();
+        if (index < samples.length) {
+            samples[index] = millis;
+        }
+    }
+
+    public int size() {
+        return Math.min(size.get(), samples.length);
+    }
+
+    /**
+     * @param percentile 0到100之间
+     */
+    public long percentile(double percentile) {
+        int count = size();
+        if (count == 0) {
+            return 0L;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+
+}
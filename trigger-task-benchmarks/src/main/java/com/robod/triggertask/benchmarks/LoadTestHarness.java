@@ -0,0 +1,290 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import com.robod.triggertask.executor.TriggerTaskExecutor;
+import com.robod.triggertask.storage.TriggerTaskStorage;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @ClassName LoadTestHarness
+ * @Description 全链路压测：多个生产者调用TriggerTaskStorage.save(或saveAsync)，定时调用TriggerTaskExecutor.timeExec扫描执行，处理器耗时和失败率可配置。
+ * 结束后输出吞吐量、触发到完成延迟的p50/p99以及平均每个任务的SQL执行次数，用来在上线前找到饱和点。
+ * load.nodes大于1时在同一个数据库上启动多个执行器模拟多实例部署，生产者轮流使用各个实例保存，用来发现跨实例的重复执行。
+ * <p>
+ * 运行：java -cp target/benchmarks.jar com.robod.triggertask.benchmarks.LoadTestHarness，参数用-Dload.xxx指定，
+ * trigger-task的配置项同样可以用-Dtrigger-task.xxx覆盖
+ * @Author Robod
+ * @Date 2025/01/22 10:00
+ */
+public class LoadTestHarness {
+
+    private static final String TASK_TYPE_PREFIX = "load-";
+
+    /**
+     * 共享同一个数据库的执行器实例数
+     */
+    private final int nodes = Math.max(1, Integer.getInteger("load.nodes", 1));
+
+    /**
+     * 任务总数
+     */
+    private final int tasks = Integer.getInteger("load.tasks", 100000);
+
+    /**
+     * 生产者线程数
+     */
+    private final int producers = Integer.getInteger("load.producers", 4);
+
+    /**
+     * 所有生产者合计每秒保存的任务数，0表示不限速
+     */
+    private final int produceRate = Integer.getInteger("load.produce-rate", 0);
+
+    /**
+     * 生产者是否使用saveAsync合并提交
+     */
+    private final boolean async = Boolean.getBoolean("load.async");
+
+    /**
+     * 任务类型数，任务按顺序轮流分配到各个类型
+     */
+    private final int taskTypes = Integer.getInteger("load.task-types", 2);
+
+    /**
+     * 处理器耗时
+     */
+    private final long handlerLatencyMillis = Long.getLong("load.handler-latency-ms", 5L);
+
+    /**
+     * 处理器失败率，失败的任务按重试策略重试
+     */
+    private final double failureRate = Double.parseDouble(System.getProperty("load.failure-rate", "0"));
+
+    /**
+     * 调用timeExec的间隔
+     */
+    private final long scanIntervalMillis = Long.getLong("load.scan-interval-ms", 500L);
+
+    /**
+     * 等待全部任务执行完的超时时间
+     */
+    private final long timeoutSeconds = Long.getLong("load.timeout-seconds", 600L);
+
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder(tasks);
+
+    private final Set<Long> succeededIds = SyntheticTaskHandler.newIdSet();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        new LoadTestHarness().run();
+    }
+
+    private void run() throws Exception {
+        printf("压测参数: nodes=%d, tasks=%d, producers=%d, produceRate=%d/s, async=%s, taskTypes=%d, handlerLatency=%dms, failureRate=%.4f, scanInterval=%dms%n",
+                nodes, tasks, producers, produceRate, async, taskTypes, handlerLatencyMillis, failureRate, scanIntervalMillis);
+
+        List<BenchmarkContext> contexts = new ArrayList<>(nodes);
+        ScheduledExecutorService scanner = Executors.newScheduledThreadPool(nodes, r -> {
+            Thread thread = new Thread(r, "load-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, Object> properties = defaultProperties();
+            for (int n = 0; n < nodes; n++) {
+                if (n > 0) {
+                    // 后续实例使用第一个实例的数据库
+                    properties.put("benchmark.datasource.url", contexts.get(0).getDatasourceUrl());
+                }
+                BenchmarkContext context = BenchmarkContext.start(properties, newHandlers(), ExecutorConfiguration.class);
+                contexts.add(context);
+                TriggerTaskExecutor<?> executor = context.getBean(TriggerTaskExecutor.class);
+                scanner.scheduleWithFixedDelay(executor::timeExec, scanIntervalMillis, scanIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+            // 压测程序自己的查询不计入统计
+            JdbcTemplate monitorJdbcTemplate = new JdbcTemplate(contexts.get(0).getBean(StatementCountingDataSource.class).getTarget());
+
+            long start = System.nanoTime();
+            long produceMillis = produce(contexts);
+            printf("保存完成: %d个任务, 耗时: %dms, 保存速度: %.0f tasks/s%n", tasks, produceMillis, tasks * 1000.0 / Math.max(1, produceMillis));
+
+            long deadCount = awaitCompletion(monitorJdbcTemplate, start);
+            long elapsedNanos = System.nanoTime() - start;
+            report(elapsedNanos, deadCount, monitorJdbcTemplate, contexts);
+        } finally {
+            scanner.shutdownNow();
+            contexts.forEach(BenchmarkContext::close);
+        }
+    }
+
+    /**
+     * 每个实例各自的处理器，共享统计数据
+     */
+    private Map<String, Object> newHandlers() {
+        Map<String, Object> singletons = new HashMap<>();
+        for (int i = 0; i < taskTypes; i++) {
+            singletons.put(TASK_TYPE_PREFIX + i, new SyntheticTaskHandler(handlerLatencyMillis, failureRate, latencyRecorder,
+                    succeededIds, failureCount, duplicateCount));
+        }
+        return singletons;
+    }
+
+    /**
+     * 压测默认配置：关闭提交后立即执行，任务全部走定时扫描；缩短重试间隔，让失败的任务在压测时间内重试完。
+     * 通过-D指定的同名配置优先
+     */
+    private Map<String, Object> defaultProperties() {
+        Map<String, Object> defaults = new LinkedHashMap<>();
+        defaults.put("trigger-task.dispatch-after-commit", false);
+        defaults.put("trigger-task.retry.policy.initial-interval", "1s");
+        defaults.put("trigger-task.retry.policy.max-interval", "5s");
+        defaults.put("benchmark.datasource.count-statements", true);
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        defaults.forEach((key, value) -> {
+            if (System.getProperty(key) == null) {
+                properties.put(key, value);
+            }
+        });
+        return properties;
+    }
+
+    /**
+     * @return 保存全部任务的耗时
+     */
+    @SuppressWarnings("unchecked")
+    private long produce(List<BenchmarkContext> contexts) throws Exception {
+        ExecutorService producerPool = Executors.newFixedThreadPool(producers, r -> {
+            Thread thread = new Thread(r, "load-producer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>(producers);
+        for (int p = 0; p < producers; p++) {
+            int producerIndex = p;
+            // 生产者轮流使用各个实例保存
+            TriggerTaskStorage<TriggerTaskBaseEntity> storage = contexts.get(p % contexts.size()).getBean(TriggerTaskStorage.class);
+            futures.add(producerPool.submit(() -> {
+                List<CompletableFuture<TriggerTaskBaseEntity>> saveFutures = new ArrayList<>();
+                long intervalNanos = produceRate > 0 ? TimeUnit.SECONDS.toNanos(producers) / produceRate : 0L;
+                long next = System.nanoTime();
+                for (int i = producerIndex; i < tasks; i += producers) {
+                    if (intervalNanos > 0) {
+                        next += intervalNanos;
+                        long sleepNanos = next - System.nanoTime();
+                        if (sleepNanos > 0) {
+                            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                        }
+                    }
+                    TriggerTaskBaseEntity task = BenchmarkTasks.newTask(TASK_TYPE_PREFIX + (i % taskTypes), i);
+                    if (async) {
+                        saveFutures.add(storage.saveAsync(task));
+                    } else {
+                        storage.save(task);
+                    }
+                }
+                CompletableFuture.allOf(saveFutures.toArray(new CompletableFuture[0])).join();
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            producerPool.shutdownNow();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * 等到所有任务执行成功或进入死信
+     *
+     * @return 死信任务数
+     */
+    private long awaitCompletion(JdbcTemplate monitorJdbcTemplate, long start) throws InterruptedException {
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        long lastPrint = System.nanoTime();
+        int lastSucceeded = 0;
+        while (true) {
+            Long deadCount = monitorJdbcTemplate.queryForObject("select count(*) from trigger_task where task_status = ?", Long.class,
+                    TriggerTaskStatusEnum.DEAD.getStatus());
+            long dead = deadCount == null ? 0L : deadCount;
+            int succeeded = succeededIds.size();
+            if (succeeded + dead >= tasks) {
+                return dead;
+            }
+
+            long now = System.nanoTime();
+            if (now > deadline) {
+                printf("等待超时, 成功: %d, 死信: %d, 未完成: %d%n", succeeded, dead, tasks - succeeded - dead);
+                return dead;
+            }
+            if (now - lastPrint >= TimeUnit.SECONDS.toNanos(5)) {
+                printf("进度: %d/%d, 最近5秒: %.0f tasks/s, 失败次数: %d%n", succeeded, tasks,
+                        (succeeded - lastSucceeded) * 1e9 / (now - lastPrint), failureCount.get());
+                lastPrint = now;
+                lastSucceeded = succeeded;
+            }
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+    }
+
+    private void report(long elapsedNanos, long deadCount, JdbcTemplate monitorJdbcTemplate, List<BenchmarkContext> contexts) {
+        int succeeded = succeededIds.size();
+        double seconds = elapsedNanos / 1e9;
+        Long endCount = monitorJdbcTemplate.queryForObject("select count(*) from trigger_task where task_status = ?", Long.class,
+                TriggerTaskStatusEnum.END.getStatus());
+        long statementCount = 0L;
+        long commitCount = 0L;
+        for (BenchmarkContext context : contexts) {
+            StatementCountingDataSource statementCounter = context.getBean(StatementCountingDataSource.class);
+            statementCount += statementCounter.getStatementCount();
+            commitCount += statementCounter.getCommitCount();
+        }
+        printf("================ 压测结果 ================%n");
+        printf("成功: %d, 数据库中已结束: %d, 死信: %d, 失败次数: %d, 重复执行: %d%n", succeeded, endCount, deadCount, failureCount.get(), duplicateCount.get());
+        printf("耗时: %.1fs, 吞吐量: %.0f tasks/s%n", seconds, succeeded / seconds);
+        printf("触发到完成延迟: p50=%dms, p99=%dms, max=%dms%n",
+                latencyRecorder.percentile(50), latencyRecorder.percentile(99), latencyRecorder.percentile(100));
+        printf("SQL执行次数: %d, 平均每个任务: %.2f; 事务提交次数: %d, 平均每个任务: %.2f%n",
+                statementCount, (double) statementCount / tasks, commitCount, (double) commitCount / tasks);
+    }
+
+    private static void printf(String format, Object... args) {
+        System.out.printf(format, args);
+    }
+
+    @Configuration
+    static class ExecutorConfiguration {
+
+        @Bean
+        @SuppressWarnings("unchecked")
+        public <T extends TriggerTaskBaseEntity> TriggerTaskExecutor<T> triggerTaskExecutor() {
+            return (TriggerTaskExecutor<T>) new TriggerTaskExecutor<>(TriggerTaskBaseEntity.class);
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.storage.TriggerTaskMdc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName MdcBenchmark
+ * @Description 保存任务时序列化MDC、执行任务时还原和清理MDC的开销，直接调用TriggerTaskStorage和TriggerTaskExecutor使用的TriggerTaskMdc
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MdcBenchmark {
+
+    private Map<String, String> contextMap;
+
+    private String mdc;
+
+    @Setup
+    public void setUp() {
+        contextMap = new HashMap<>();
+        contextMap.put("traceId", "6f1c2a9e4b7d4c03a1f8e5d2c9b0a7e6");
+        contextMap.put("spanId", "a1f8e5d2c9b0a7e6");
+        contextMap.put("userId", "1024");
+        contextMap.put("requestParam", "{\"studentId\":1,\"name\":\"robod\"}");
+        contextMap.put("token", "eyJhbGciOiJIUzI1NiJ9.eyJzdWIiOiIxMDI0In0.signature");
+        contextMap.put("MachineName", "trigger-task-01");
+        contextMap.put("ApplicationName", "trigger-task-demo");
+        MDC.setContextMap(contextMap);
+        mdc = TriggerTaskMdc.capture();
+    }
+
+    @TearDown
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    /**
+     * 保存任务时的序列化，基准线程上的MDC在setUp中设置
+     */
+    @Benchmark
+    public String capture() {
+        return TriggerTaskMdc.capture();
+    }
+
+    /**
+     * 执行任务前还原MDC、执行完后清理，与执行线程上的开销一致
+     */
+    @Benchmark
+    public void restoreAndClear() {
+        TriggerTaskMdc.restore(mdc);
+        TriggerTaskMdc.clear();
+    }
+
+}
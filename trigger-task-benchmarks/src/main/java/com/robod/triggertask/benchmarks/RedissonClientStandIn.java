@@ -0,0 +1,84 @@
+package com.robod.triggertask.benchmarks;
+
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @ClassName RedissonClientStandIn
+ * @Description 进程内的RedissonClient替身。只实现了分布式锁，用同名共享的ReentrantLock代替，单实例压测时语义一致；
+ * 被调用到其他方法时直接抛异常，避免悄悄测到假的实现
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+public final class RedissonClientStandIn {
+
+    private RedissonClientStandIn() {
+    }
+
+    public static RedissonClient create() {
+        Map<String, RLock> locks = new ConcurrentHashMap<>();
+        return (RedissonClient) Proxy.newProxyInstance(RedissonClient.class.getClassLoader(), new Class<?>[]{RedissonClient.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return "RedissonClientStandIn";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "shutdown":
+                    return null;
+                case "isShutdown":
+                case "isShuttingDown":
+                    return false;
+                case "getLock":
+                    return locks.computeIfAbsent((String) args[0], RedissonClientStandIn::createLock);
+                default:
+                    throw new UnsupportedOperationException("RedissonClientStandIn不支持: " + method.getName());
+            }
+        });
+    }
+
+    /**
+     * 只支持执行器用到的加锁方法，租约时间参数被忽略
+     */
+    private static RLock createLock(String name) {
+        ReentrantLock lock = new ReentrantLock();
+        return (RLock) Proxy.newProxyInstance(RLock.class.getClassLoader(), new Class<?>[]{RLock.class}, (proxy, method, args) -> {
+            int argCount = args == null ? 0 : args.length;
+            switch (method.getName()) {
+                case "toString":
+                case "getName":
+                    return name;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "lock":
+                    lock.lock();
+                    return null;
+                case "tryLock":
+                    if (argCount == 0) {
+                        return lock.tryLock();
+                    }
+                    // tryLock(waitTime, unit)或tryLock(waitTime, leaseTime, unit)
+                    return lock.tryLock((Long) args[0], (TimeUnit) args[argCount - 1]);
+                case "unlock":
+                    lock.unlock();
+                    return null;
+                case "isLocked":
+                    return lock.isLocked();
+                case "isHeldByCurrentThread":
+                    return lock.isHeldByCurrentThread();
+                default:
+                    throw new UnsupportedOperationException("RedissonClientStandIn锁不支持: " + method.getName());
+            }
+        });
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.storage.TriggerTaskStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName RowMapperBenchmark
+ * @Description 扫描一页任务时BeanPropertyRowMapper映射TriggerTaskBaseEntity的开销。执行器每次查询都新建RowMapper，这里同时测复用RowMapper作对照
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    private static final String SQL = " select * from trigger_task where id > ? and task_status = ? order by id asc limit ? ";
+
+    /**
+     * 每页的行数，200与执行器的扫描分页一致
+     */
+    @Param({"200"})
+    private int pageSize;
+
+    private BenchmarkContext context;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private final BeanPropertyRowMapper<TriggerTaskBaseEntity> sharedRowMapper = new BeanPropertyRowMapper<>(TriggerTaskBaseEntity.class);
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        context = BenchmarkContext.start(Collections.singletonMap("trigger-task.dispatch-after-commit", false));
+        jdbcTemplate = context.getJdbcTemplate();
+        context.getBean(TriggerTaskStorage.class).saveBatch(BenchmarkTasks.newTasks(BenchmarkTasks.TASK_TYPE, pageSize));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<TriggerTaskBaseEntity> newRowMapperPerQuery() {
+        return jdbcTemplate.query(SQL, new BeanPropertyRowMapper<>(TriggerTaskBaseEntity.class), 0L, 1, pageSize);
+    }
+
+    @Benchmark
+    public List<TriggerTaskBaseEntity> sharedRowMapper() {
+        return jdbcTemplate.query(SQL, sharedRowMapper, 0L, 1, pageSize);
+    }
+
+    /**
+     * 只查id，作为查询本身开销的基线
+     */
+    @Benchmark
+    public List<Long> idOnly() {
+        return jdbcTemplate.queryForList(" select id from trigger_task where id > ? and task_status = ? order by id asc limit ? ", Long.class, 0L, 1, pageSize);
+    }
+
+}
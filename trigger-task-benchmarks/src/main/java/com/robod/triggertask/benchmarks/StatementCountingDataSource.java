@@ -0,0 +1,99 @@
+package com.robod.triggertask.benchmarks;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @ClassName StatementCountingDataSource
+ * @Description 统计SQL执行次数的DataSource代理。每次execute/executeQuery/executeUpdate/executeBatch算一次数据库往返，另外单独统计事务提交次数
+ * @Author Robod
+ * @Date 2025/01/22 10:00
+ */
+public final class StatementCountingDataSource {
+
+    private final DataSource target;
+
+    private final AtomicLong statementCount = new AtomicLong();
+
+    private final AtomicLong commitCount = new AtomicLong();
+
+    public StatementCountingDataSource(DataSource target) {
+        this.target = target;
+    }
+
+    /**
+     * 统计执行次数的代理，关闭时同时关闭被代理的DataSource
+     */
+    public DataSource getDataSource() {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class, Closeable.class}, (proxy, method, args) -> {
+            if ("close".equals(method.getName())) {
+                if (target instanceof AutoCloseable) {
+                    ((AutoCloseable) target).close();
+                }
+                return null;
+            }
+            Object result = invoke(target, method, args);
+            return result instanceof Connection ? wrapConnection((Connection) result) : result;
+        });
+    }
+
+    /**
+     * 不参与统计的DataSource，压测程序自己的监控查询走这里
+     */
+    public DataSource getTarget() {
+        return target;
+    }
+
+    public long getStatementCount() {
+        return statementCount.get();
+    }
+
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    private Connection wrapConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if ("commit".equals(method.getName())) {
+                commitCount.incrementAndGet();
+            }
+            Object result = invoke(connection, method, args);
+            if (result instanceof CallableStatement) {
+                return wrapStatement(result, CallableStatement.class);
+            } else if (result instanceof PreparedStatement) {
+                return wrapStatement(result, PreparedStatement.class);
+            } else if (result instanceof Statement) {
+                return wrapStatement(result, Statement.class);
+            }
+            return result;
+        });
+    }
+
+    private Object wrapStatement(Object statement, Class<? extends Statement> type) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                statementCount.incrementAndGet();
+            }
+            return invoke(statement, method, args);
+        };
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+}
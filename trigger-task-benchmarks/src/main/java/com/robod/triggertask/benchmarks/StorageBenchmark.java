@@ -0,0 +1,124 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.storage.TriggerTaskEntityMetadata;
+import com.robod.triggertask.storage.TriggerTaskEntityMetadataAccess;
+import com.robod.triggertask.storage.TriggerTaskStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName StorageBenchmark
+ * @Description TriggerTaskStorage保存任务的开销：实体类元数据解析、参数绑定、单条保存和批量保存。关闭了提交后立即执行，只测插入本身
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int batchSize;
+
+    private BenchmarkContext context;
+
+    private TriggerTaskStorage<TriggerTaskBaseEntity> storage;
+
+    private TriggerTaskEntityMetadata metadata;
+
+    private List<TriggerTaskBaseEntity> bindTasks;
+
+    private Connection connection;
+
+    private PreparedStatement insertStatement;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        context = BenchmarkContext.start(Collections.singletonMap("trigger-task.dispatch-after-commit", false));
+        storage = context.getBean(TriggerTaskStorage.class);
+        metadata = TriggerTaskEntityMetadata.of(TriggerTaskBaseEntity.class);
+        bindTasks = BenchmarkTasks.newTasks(BenchmarkTasks.TASK_TYPE, batchSize);
+        try {
+            connection = context.getBean(DataSource.class).getConnection();
+            insertStatement = connection.prepareStatement(metadata.getInsertSql());
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() {
+        context.truncate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        insertStatement.close();
+        connection.close();
+        context.close();
+    }
+
+    /**
+     * 不经过缓存解析实体类的字段、列和插入语句，即每个实体类第一次保存时的开销
+     */
+    @Benchmark
+    public TriggerTaskEntityMetadata parseMetadata() {
+        return TriggerTaskEntityMetadataAccess.parse(TriggerTaskBaseEntity.class);
+    }
+
+    /**
+     * batchSize条任务按插入语句逐条绑定参数，与批量插入时的绑定路径一致，不执行语句
+     */
+    @Benchmark
+    public void bindValues() throws SQLException {
+        for (TriggerTaskBaseEntity task : bindTasks) {
+            metadata.setValues(insertStatement, task);
+            insertStatement.clearParameters();
+        }
+    }
+
+    /**
+     * batchSize条任务逐条调用save
+     */
+    @Benchmark
+    public void save() {
+        for (TriggerTaskBaseEntity task : BenchmarkTasks.newTasks(BenchmarkTasks.TASK_TYPE, batchSize)) {
+            storage.save(task);
+        }
+    }
+
+    /**
+     * batchSize条任务一次调用saveBatch
+     */
+    @Benchmark
+    public List<TriggerTaskBaseEntity> saveBatch() {
+        List<TriggerTaskBaseEntity> taskList = BenchmarkTasks.newTasks(BenchmarkTasks.TASK_TYPE, batchSize);
+        storage.saveBatch(taskList);
+        return taskList;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.robod.triggertask.benchmarks;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.handler.TriggerTaskHandler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @ClassName SyntheticTaskHandler
+ * @Description 压测用的处理器：按配置的耗时休眠，按配置的概率抛异常，成功时记录从触发时间到执行完成的延迟。
+ * 成功和重复执行在处理器所在的事务提交后才记录，被回滚的执行(例如租约已被其他实例重新认领)不算执行成功
+ * @Author Robod
+ * @Date 2025/01/22 10:00
+ */
+public class SyntheticTaskHandler implements TriggerTaskHandler<TriggerTaskBaseEntity> {
+
+    private final long latencyMillis;
+
+    private final double failureRate;
+
+    private final LatencyRecorder latencyRecorder;
+
+    private final Set<Long> succeededIds;
+
+    private final AtomicLong failureCount;
+
+    private final AtomicLong duplicateCount;
+
+    /**
+     * 同一压测中的多个处理器共享统计数据
+     */
+    public SyntheticTaskHandler(long latencyMillis, double failureRate, LatencyRecorder latencyRecorder,
+                                Set<Long> succeededIds, AtomicLong failureCount, AtomicLong duplicateCount) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.latencyRecorder = latencyRecorder;
+        this.succeededIds = succeededIds;
+        this.failureCount = failureCount;
+        this.duplicateCount = duplicateCount;
+    }
+
+    public static Set<Long> newIdSet() {
+        return ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public void handleTask(TriggerTaskBaseEntity task) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("处理器被中断", e);
+            }
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failureCount.incrementAndGet();
+            throw new IllegalStateException("模拟执行失败");
+        }
+
+        LocalDateTime finishedAt = LocalDateTime.now();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recordSuccess(task, finishedAt);
+                }
+            });
+        } else {
+            recordSuccess(task, finishedAt);
+        }
+    }
+
+    private void recordSuccess(TriggerTaskBaseEntity task, LocalDateTime finishedAt) {
+        if (!succeededIds.add(task.getId())) {
+            duplicateCount.incrementAndGet();
+            return;
+        }
+        latencyRecorder.record(Duration.between(task.getTriggerTime(), finishedAt).toMillis());
+    }
+
+}
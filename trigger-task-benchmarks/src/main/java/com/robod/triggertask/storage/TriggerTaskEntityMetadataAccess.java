@@ -0,0 +1,23 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+
+/**
+ * @ClassName TriggerTaskEntityMetadataAccess
+ * @Description 压测访问TriggerTaskEntityMetadata包内方法的入口。与其同包，只存在于压测模块，不属于trigger-task对外的API
+ * @Author Robod
+ * @Date 2025/02/12 10:00
+ */
+public final class TriggerTaskEntityMetadataAccess {
+
+    private TriggerTaskEntityMetadataAccess() {
+    }
+
+    /**
+     * 不经过缓存重新解析实体类
+     */
+    public static TriggerTaskEntityMetadata parse(Class<? extends TriggerTaskBaseEntity> clazz) {
+        return TriggerTaskEntityMetadata.parse(clazz);
+    }
+
+}
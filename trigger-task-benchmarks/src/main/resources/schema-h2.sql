@@ -0,0 +1,31 @@
+-- 与根目录sql.sql保持一致，去掉了H2不支持的表选项和注释
+CREATE TABLE IF NOT EXISTS trigger_task (
+    id                bigint        NOT NULL AUTO_INCREMENT,
+    task_type         varchar(64)   NOT NULL,
+    task_status       tinyint       NOT NULL DEFAULT 1,
+    trigger_time      datetime      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    remark            varchar(255)  DEFAULT '',
+    mdc               varchar(1500) DEFAULT NULL,
+    fail_msg          varchar(1000) DEFAULT '',
+    last_fail_time    datetime      DEFAULT NULL,
+    fail_count        int           NOT NULL DEFAULT 0,
+    next_retry_time   datetime      DEFAULT NULL,
+    lock_key          varchar(64)   DEFAULT '',
+    param1            varchar(1000) DEFAULT '',
+    param2            varchar(1000) DEFAULT '',
+    param3            varchar(1000) DEFAULT '',
+    param4            varchar(1000) DEFAULT '',
+    param5            varchar(1000) DEFAULT '',
+    payload           blob          DEFAULT NULL,
+    lease_owner       varchar(128)  DEFAULT NULL,
+    lease_expire_time datetime      DEFAULT NULL,
+    priority          tinyint       NOT NULL DEFAULT 0,
+    dedup_key         varchar(128)  DEFAULT NULL,
+    created_at        datetime      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at        datetime      NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_status_trigger_time ON trigger_task (task_status, trigger_time, id, next_retry_time);
+CREATE INDEX IF NOT EXISTS idx_status_priority_trigger_time ON trigger_task (task_status, priority, trigger_time, id);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_task_type_dedup_key ON trigger_task (task_type, dedup_key);
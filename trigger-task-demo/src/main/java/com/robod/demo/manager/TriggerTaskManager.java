@@ -2,9 +2,7 @@ package com.robod.demo.manager;
 
 import com.robod.demo.common.TriggerTaskTypeDefine;
 import com.robod.triggertask.entity.TriggerTaskBaseEntity;
-import com.robod.triggertask.executor.TriggerTaskExecutor;
 import com.robod.triggertask.storage.TriggerTaskStorage;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
@@ -16,21 +14,18 @@ public class TriggerTaskManager {
 
     @Resource
     private TriggerTaskStorage<TriggerTaskBaseEntity> triggerTaskStorage;
-    @Resource
-    private TriggerTaskExecutor<TriggerTaskBaseEntity> triggerTaskExecutor;
 
-    @SneakyThrows
     public void updateStudent(String studentId, String studentName) {
         TriggerTaskBaseEntity entity = new TriggerTaskBaseEntity();
         entity.setTaskType(TriggerTaskTypeDefine.UPDATE_STUDENT);
         entity.setRemark("学生[" + studentId + "]信息更新");
         entity.setLockKey(studentId);
+        // 同一学生只保留最新一次更新，未执行的旧任务被替换
+        entity.setDedupKey(studentId);
         entity.setParam1(studentId);
         entity.setParam2(studentName);
+        // 事务提交后任务会立即交给执行器执行
         triggerTaskStorage.save(entity);
-
-        triggerTaskExecutor.exec(5);
-        Thread.sleep(5 * 1000);
     }
 
 }
@@ -1,7 +1,20 @@
 package com.robod.triggertask.config;
 
 import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.metrics.MicrometerTriggerTaskMetrics;
+import com.robod.triggertask.metrics.TriggerTaskMetrics;
+import com.robod.triggertask.payload.JsonbTriggerTaskPayloadCodec;
+import com.robod.triggertask.payload.TriggerTaskPayloadCodec;
+import com.robod.triggertask.storage.TriggerTaskReadyIndex;
+import com.robod.triggertask.storage.TriggerTaskSchemaChecker;
 import com.robod.triggertask.storage.TriggerTaskStorage;
+import com.robod.triggertask.storage.TriggerTaskTableRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,6 +25,7 @@ import org.springframework.context.annotation.Configuration;
  * @Date 2024/12/28 10:00
  */
 @Configuration
+@EnableConfigurationProperties(TriggerTaskProperties.class)
 public class TriggerTaskAutoConfiguration {
 
     @Bean
@@ -19,4 +33,42 @@ public class TriggerTaskAutoConfiguration {
         return new TriggerTaskStorage<>();
     }
 
+    @Bean
+    public TriggerTaskReadyIndex triggerTaskReadyIndex() {
+        return new TriggerTaskReadyIndex();
+    }
+
+    @Bean
+    public TriggerTaskTableRouter triggerTaskTableRouter() {
+        return new TriggerTaskTableRouter();
+    }
+
+    @Bean
+    public TriggerTaskSchemaChecker triggerTaskSchemaChecker() {
+        return new TriggerTaskSchemaChecker();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public TriggerTaskPayloadCodec triggerTaskPayloadCodec(TriggerTaskProperties triggerTaskProperties) {
+        return new JsonbTriggerTaskPayloadCodec(triggerTaskProperties.getPayload().getCompressThreshold());
+    }
+
+    /**
+     * Micrometer是可选依赖，只有classpath中存在时才加载
+     */
+    @Configuration
+    @ConditionalOnClass(MeterRegistry.class)
+    @ConditionalOnProperty(prefix = "trigger-task.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+    static class TriggerTaskMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public TriggerTaskMetrics triggerTaskMetrics(ObjectProvider<MeterRegistry> meterRegistryProvider) {
+            MeterRegistry meterRegistry = meterRegistryProvider.getIfAvailable();
+            return meterRegistry != null ? new MicrometerTriggerTaskMetrics(meterRegistry) : TriggerTaskMetrics.NOOP;
+        }
+
+    }
+
 }
@@ -0,0 +1,647 @@
+package com.robod.triggertask.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @ClassName TriggerTaskProperties
+ * @Description TriggerTask配置项
+ * @Author Robod
+ * @Date 2025/01/08 10:00
+ */
+@Data
+@ConfigurationProperties(prefix = "trigger-task")
+public class TriggerTaskProperties {
+
+    /**
+     * 保存任务后是否在事务提交后立即提交给本实例的执行器执行，定时扫描只作为兜底。
+     * 需要同时开启claim.enabled，靠租约避免与其他实例的扫描重复执行；线程池已满时不等待，留给定时扫描处理
+     */
+    private boolean dispatchAfterCommit = false;
+
+    /**
+     * 多实例并行认领
+     */
+    private Claim claim = new Claim();
+
+    /**
+     * 任务执行线程池
+     */
+    private Executor executor = new Executor();
+
+    /**
+     * 时间轮
+     */
+    private TimingWheel timingWheel = new TimingWheel();
+
+    /**
+     * Redis就绪索引
+     */
+    private ReadyIndex readyIndex = new ReadyIndex();
+
+    /**
+     * 失败重试
+     */
+    private Retry retry = new Retry();
+
+    /**
+     * 批量处理
+     */
+    private Batch batch = new Batch();
+
+    /**
+     * 状态批量回写
+     */
+    private WriteBack writeBack = new WriteBack();
+
+    /**
+     * 按lockKey串行执行
+     */
+    private Lane lane = new Lane();
+
+    /**
+     * 分布式锁
+     */
+    private Lock lock = new Lock();
+
+    /**
+     * 监控指标
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 清理已结束和进入死信的任务
+     */
+    private Purge purge = new Purge();
+
+    /**
+     * 表结构检查
+     */
+    private Schema schema = new Schema();
+
+    /**
+     * 定时扫描
+     */
+    private Scan scan = new Scan();
+
+    /**
+     * 任务优先级
+     */
+    private Priority priority = new Priority();
+
+    /**
+     * 按任务类型限流
+     */
+    private RateLimit rateLimit = new RateLimit();
+
+    /**
+     * payload列编码
+     */
+    private Payload payload = new Payload();
+
+    /**
+     * 按任务类型路由到不同的表
+     */
+    private Routing routing = new Routing();
+
+    /**
+     * saveAsync合并提交
+     */
+    private GroupCommit groupCommit = new GroupCommit();
+
+    /**
+     * 按dedupKey合并未结束的任务
+     */
+    private Dedup dedup = new Dedup();
+
+    @Data
+    public static class Claim {
+
+        /**
+         * 是否开启认领模式。开启后不再使用全局扫描锁，每个实例通过SELECT ... FOR UPDATE SKIP LOCKED并行认领互不相交的任务。
+         * 需要表中存在lease_owner、lease_expire_time字段，且数据库支持SKIP LOCKED(MySQL 8.0+)
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每次认领的任务数
+         */
+        private int batchSize = 200;
+
+        /**
+         * 租约时长，超过该时间未结束的任务可被其他实例重新认领
+         */
+        private Duration leaseDuration = Duration.ofMinutes(10);
+
+    }
+
+    @Data
+    public static class Executor {
+
+        /**
+         * 默认线程池配置，未单独配置的任务类型各自按该配置建池
+         */
+        private Pool pool = new Pool();
+
+        /**
+         * 按任务类型单独配置线程池，key为taskType
+         */
+        private Map<String, Pool> taskTypes = new HashMap<>();
+
+        /**
+         * 线程池队列满时扫描线程最多等待的时间，超时后本轮扫描不再拉取该类型的任务
+         */
+        private Duration offerTimeout = Duration.ofSeconds(5);
+
+        /**
+         * 是否用虚拟线程执行任务(需要Java 21+)。开启后每个任务一个虚拟线程，并发数由maxConcurrency限制，适合阻塞在IO上的处理器
+         */
+        private boolean virtualThreads = false;
+
+    }
+
+    @Data
+    public static class TimingWheel {
+
+        /**
+         * 是否开启时间轮。开启后会预加载未来一段时间内要触发的任务，到点后立即执行，不用等下一次扫描。
+         * 每个实例都会预加载同样的任务，到点后靠租约保证只有一个实例执行，因此需要同时开启认领模式
+         */
+        private boolean enabled = false;
+
+        /**
+         * 预加载窗口，只加载触发时间在该窗口内的任务
+         */
+        private Duration preloadWindow = Duration.ofMinutes(10);
+
+        /**
+         * 增量加载的间隔
+         */
+        private Duration refillInterval = Duration.ofSeconds(30);
+
+        /**
+         * 时间轮中最多保存的任务数
+         */
+        private int maxPending = 100000;
+
+        /**
+         * 时间轮刻度
+         */
+        private Duration tickDuration = Duration.ofMillis(100);
+
+        /**
+         * 时间轮槽数
+         */
+        private int ticksPerWheel = 512;
+
+    }
+
+    @Data
+    public static class ReadyIndex {
+
+        /**
+         * 是否开启Redis就绪索引。开启后待执行任务的id按触发时间写入Redis有序集合，扫描时从中弹出到期的id，只按id加载这些任务，不再轮询数据库。
+         * 数据库仍然是唯一可信来源，定期对账修复两边的差异。
+         * 仍在执行的任务过了宽限时间后可能再次从索引弹出，靠租约保证不会重复执行，因此需要同时开启认领模式
+         */
+        private boolean enabled = false;
+
+        /**
+         * 对账间隔
+         */
+        private Duration reconcileInterval = Duration.ofMinutes(5);
+
+        /**
+         * 宽限时间。已直接交给本实例执行器的新任务、对账时补回的任务，在索引中的到期时间至少推后到当前时间加上该时间，
+         * 减少任务执行期间被其他实例弹出后白白认领一次。超过宽限时间仍在执行的任务由租约挡住，不会重复执行
+         */
+        private Duration inFlightGrace = Duration.ofSeconds(30);
+
+    }
+
+    @Data
+    public static class Retry {
+
+        /**
+         * 默认重试策略
+         */
+        private RetryPolicy policy = new RetryPolicy();
+
+        /**
+         * 按任务类型单独配置重试策略，key为taskType
+         */
+        private Map<String, RetryPolicy> taskTypes = new HashMap<>();
+
+    }
+
+    @Data
+    public static class RetryPolicy {
+
+        /**
+         * 最多执行次数，失败次数达到该值后任务进入死信状态，不再重试
+         */
+        private int maxAttempts = 10;
+
+        /**
+         * 第一次重试的间隔
+         */
+        private Duration initialInterval = Duration.ofSeconds(30);
+
+        /**
+         * 间隔倍数，第n次失败后的间隔为initialInterval * multiplier^(n-1)
+         */
+        private double multiplier = 2.0;
+
+        /**
+         * 最大重试间隔
+         */
+        private Duration maxInterval = Duration.ofHours(2);
+
+        /**
+         * 随机抖动比例，间隔在[1 - jitter, 1 + jitter]倍之间随机，避免大量任务同时重试
+         */
+        private double jitter = 0.2;
+
+    }
+
+    @Data
+    public static class Batch {
+
+        /**
+         * BatchTriggerTaskHandler每批处理的任务数
+         */
+        private int chunkSize = 100;
+
+        /**
+         * 按任务类型单独配置每批的任务数，key为taskType
+         */
+        private Map<String, Integer> taskTypes = new HashMap<>();
+
+    }
+
+    @Data
+    public static class WriteBack {
+
+        /**
+         * 是否开启状态批量回写。开启后任务执行结果先进入内存缓冲，由后台线程按批写回数据库，不再每个任务单独更新一次。
+         * 处理器的事务提交后、状态写回前实例宕机，任务仍是未结束状态，会被再次执行，处理器需要保证幂等
+         */
+        private boolean enabled = false;
+
+        /**
+         * 缓冲达到该数量时立即写回
+         */
+        private int maxBatchSize = 500;
+
+        /**
+         * 最长写回间隔
+         */
+        private Duration flushInterval = Duration.ofMillis(200);
+
+        /**
+         * 缓冲容量，写满后执行线程等待写回
+         */
+        private int bufferCapacity = 10000;
+
+    }
+
+    @Data
+    public static class Lane {
+
+        /**
+         * 是否开启按lockKey串行执行。开启后同一个lockKey的任务在本实例内进入同一条串行通道，按id顺序执行，
+         * 一次拿到分布式锁后连续执行通道里的多个任务，不再每个任务加锁解锁一次；不同lockKey之间仍然并行。
+         * 开启路由时id按实例预取的号段分配，多个实例保存的同一lockKey的任务不保证按保存顺序执行
+         */
+        private boolean enabled = false;
+
+        /**
+         * 一次持有分布式锁最多连续执行的任务数，执行完后释放锁让其他实例有机会拿到
+         */
+        private int maxDrainSize = 100;
+
+        /**
+         * 所有通道中最多排队的任务数
+         */
+        private int maxPendingTasks = 10000;
+
+    }
+
+    @Data
+    public static class Lock {
+
+        /**
+         * 获取lockKey分布式锁最多等待的时间，拿不到锁的任务延后执行，释放执行线程
+         */
+        private Duration waitTime = Duration.ofMillis(100);
+
+        /**
+         * 拿不到锁时在本地延后重新提交的间隔
+         */
+        private Duration requeueDelay = Duration.ofSeconds(2);
+
+        /**
+         * 本地最多延后的次数，超过后把下次执行时间写回数据库并释放任务，不计入失败次数
+         */
+        private int maxLocalRequeues = 5;
+
+        /**
+         * 写回数据库时延后的时长
+         */
+        private Duration deferDelay = Duration.ofSeconds(30);
+
+    }
+
+    @Data
+    public static class Metrics {
+
+        /**
+         * 存在MeterRegistry时是否发布监控指标
+         */
+        private boolean enabled = true;
+
+        /**
+         * 积压任务数的刷新间隔。积压数需要查库，不在指标采集时实时查询
+         */
+        private Duration backlogRefreshInterval = Duration.ofMinutes(1);
+
+    }
+
+    @Data
+    public static class Purge {
+
+        /**
+         * 已结束的任务保留的时长，updated_at早于该时长的任务会被清理
+         */
+        private Duration retention = Duration.ofDays(30);
+
+        /**
+         * 死信任务保留的时长，updated_at早于该时长的死信任务会被清理。死信需要人工排查，默认比已结束的任务保留更久
+         */
+        private Duration deadRetention = Duration.ofDays(90);
+
+        /**
+         * 每次删除的id范围大小，按主键范围删除，每条语句只锁住这一段
+         */
+        private int chunkSize = 1000;
+
+        /**
+         * 两次删除之间的停顿，给复制和其他事务留出空隙
+         */
+        private Duration pauseBetweenChunks = Duration.ofMillis(200);
+
+        /**
+         * 一次清理最长执行的时间，超时后保存进度，下次清理时接着执行。清理在单独的线程中执行，不影响任务扫描
+         */
+        private Duration maxDuration = Duration.ofMinutes(30);
+
+        /**
+         * 每删除多少个id范围输出一次进度
+         */
+        private int progressLogInterval = 100;
+
+        /**
+         * 删除前是否先把任务复制到归档表
+         */
+        private boolean archiveEnabled = false;
+
+        /**
+         * 归档表，表结构与trigger_task一致
+         */
+        private String archiveTable = "trigger_task_history";
+
+    }
+
+    @Data
+    public static class Schema {
+
+        /**
+         * 启动时是否检查任务表的索引，缺少扫描依赖的索引时输出告警；配置了trigger-task.dedup.task-types时缺少(task_type, dedup_key)唯一索引启动失败
+         */
+        private boolean checkIndexes = true;
+
+    }
+
+    @Data
+    public static class Scan {
+
+        /**
+         * 扫描时是否只查询id、task_type、lock_key、trigger_time，任务的完整行在执行前再按批加载。
+         * 任务参数较大或扫描出的任务常常要在线程池中排队时建议开启
+         */
+        private boolean projection = false;
+
+        /**
+         * 执行前加载完整行时一次最多加载的任务数
+         */
+        private int loadBatchSize = 50;
+
+        /**
+         * 执行前加载完整行时凑批等待的最长时间
+         */
+        private Duration loadMaxWait = Duration.ofMillis(5);
+
+        /**
+         * 兜底定时扫描的cron表达式，设为"-"时关闭。开启自适应扫描后可以关闭
+         */
+        private String cron = "0 0/10 * * * ?";
+
+        /**
+         * 是否开启自适应扫描：扫到任务且线程池有空闲时按最小间隔连续扫描，扫不到任务时间隔逐步拉长到最大间隔
+         */
+        private boolean adaptive = false;
+
+        /**
+         * 自适应扫描的最小间隔
+         */
+        private Duration minInterval = Duration.ofSeconds(1);
+
+        /**
+         * 自适应扫描的最大间隔
+         */
+        private Duration maxInterval = Duration.ofMinutes(10);
+
+        /**
+         * 扫不到任务时扫描间隔的增长倍数
+         */
+        private double backoffMultiplier = 2.0;
+
+    }
+
+    @Data
+    public static class Priority {
+
+        /**
+         * 是否按优先级扫描和执行。关闭时priority列照常写入，扫描和执行不区分优先级
+         */
+        private boolean enabled = false;
+
+        /**
+         * 最大优先级，优先级取值0~maxPriority，数值越大越优先。保存时超出范围的优先级按边界值处理
+         */
+        private int maxPriority = 2;
+
+        /**
+         * 优先级 -> 每个任务类型的线程池中为该优先级及以上的任务保留的容量比例，低优先级的任务只能使用剩余的容量。
+         * 例如{2: 0.2}表示优先级低于2的任务最多占用线程池80%的容量。按lockKey串行执行的任务按优先级0提交
+         */
+        private Map<Integer, Double> reserved = new HashMap<>();
+
+        /**
+         * 任务到期后等待超过该时长按最高优先级处理，避免低优先级的任务一直得不到执行
+         */
+        private Duration starvationThreshold = Duration.ofMinutes(5);
+
+    }
+
+    @Data
+    public static class RateLimit {
+
+        /**
+         * 任务类型 -> 限流配置，所有实例合计生效。没有配置的任务类型不限流
+         */
+        private Map<String, RateLimitPolicy> taskTypes = new HashMap<>();
+
+        /**
+         * 每次从Redis预取的令牌数，预取的令牌在本地发放，减少访问Redis的次数
+         */
+        private int localBatch = 10;
+
+        /**
+         * 预取的令牌在本地保留的最长时间，超过后作废。越短各实例之间的令牌分配越均匀
+         */
+        private Duration localTokenTtl = Duration.ofSeconds(1);
+
+    }
+
+    @Data
+    public static class RateLimitPolicy {
+
+        /**
+         * 每秒最多执行的任务数
+         */
+        private double permitsPerSecond;
+
+        /**
+         * 允许突发执行的任务数，即令牌桶容量。小于等于0时取permitsPerSecond
+         */
+        private int burst = 0;
+
+    }
+
+    @Data
+    public static class Payload {
+
+        /**
+         * 默认编解码器的压缩阈值，编码后超过该字节数时用gzip压缩，小于等于0时不压缩
+         */
+        private int compressThreshold = 1024;
+
+    }
+
+    @Data
+    public static class Routing {
+
+        /**
+         * 任务类型 -> 路由规则，没有配置的任务类型保存在trigger_task表。路由到的表需要预先按trigger_task的表结构创建
+         */
+        private Map<String, Route> taskTypes = new HashMap<>();
+
+        /**
+         * 开启路由后任务id由Redis中的id生成器分配，保证所有表的id不重复。每个实例每次预取的id数。
+         * 各实例从各自预取的号段中分配id，多个实例同时保存时id顺序与保存顺序不一致，同一lockKey的任务只有在同一实例保存时才能保证按保存顺序执行
+         */
+        private int idAllocationSize = 1000;
+
+    }
+
+    @Data
+    public static class Route {
+
+        /**
+         * 表名，分表时为表名前缀
+         */
+        private String table;
+
+        /**
+         * 分表数，大于1时保存到table_0 ~ table_{shards-1}。有dedupKey时按dedupKey的哈希值选表，保证去重的唯一索引生效；
+         * 没有dedupKey时按lockKey的哈希值选表，都为空时随机选择。lockKey相同、dedupKey不同的任务可能落在不同的分表
+         */
+        private int shards = 1;
+
+    }
+
+    @Data
+    public static class GroupCommit {
+
+        /**
+         * 缓冲达到该数量时立即提交
+         */
+        private int maxBatchSize = 500;
+
+        /**
+         * 第一个任务进入缓冲后最多等待的时间
+         */
+        private Duration maxWait = Duration.ofMillis(5);
+
+        /**
+         * 缓冲容量，写满后saveAsync的调用线程等待
+         */
+        private int bufferCapacity = 10000;
+
+        /**
+         * 缓冲已满时saveAsync最多等待的时间，超时后返回的future以异常结束
+         */
+        private Duration enqueueTimeout = Duration.ofSeconds(1);
+
+    }
+
+    @Data
+    public static class Dedup {
+
+        /**
+         * 任务类型 -> 合并方式。只有配置了的任务类型按dedupKey合并，其余任务类型忽略dedupKey
+         */
+        private Map<String, DedupMode> taskTypes = new HashMap<>();
+
+    }
+
+    public enum DedupMode {
+
+        /**
+         * 保留最新的任务：已有相同dedupKey的未结束任务时，结束原任务后保存新任务
+         */
+        LATEST_WINS,
+
+        /**
+         * 保留最早的任务：已有相同dedupKey的未结束任务时丢弃新任务
+         */
+        FIRST_WINS
+
+    }
+
+    @Data
+    public static class Pool {
+
+        /**
+         * 线程数
+         */
+        private int threads = 10;
+
+        /**
+         * 等待队列容量
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * 虚拟线程模式下的最大并发数
+         */
+        private int maxConcurrency = 200;
+
+    }
+
+}
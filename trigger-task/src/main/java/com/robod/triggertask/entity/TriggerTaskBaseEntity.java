@@ -1,6 +1,11 @@
 package com.robod.triggertask.entity;
 
+import com.alibaba.fastjson2.annotation.JSONField;
+import com.robod.triggertask.payload.TriggerTaskPayloadCodec;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.time.LocalDateTime;
 
@@ -52,11 +57,26 @@ public class TriggerTaskBaseEntity {
      */
     private Integer failCount;
 
+    /**
+     * 下次重试时间，为空表示到触发时间即可执行
+     */
+    private LocalDateTime nextRetryTime;
+
     /**
      * 分布式锁key
      */
     private String lockKey;
 
+    /**
+     * 优先级，数值越大越优先，默认0
+     */
+    private Integer priority;
+
+    /**
+     * 合并key，同一任务类型下相同key的未结束任务最多只有一个，合并方式见trigger-task.dedup.task-types。任务结束后清空
+     */
+    private String dedupKey;
+
     private String param1;
 
     private String param2;
@@ -67,6 +87,29 @@ public class TriggerTaskBaseEntity {
 
     private String param5;
 
+    /**
+     * 二进制参数，通过{@link #writePayload(Object)}和{@link #readPayload(Class)}读写，不输出到日志
+     */
+    @JSONField(serialize = false)
+    private byte[] payload;
+
+    /**
+     * 保存前待编码的参数对象，或执行时已解码的参数对象
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Object payloadObject;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient TriggerTaskPayloadCodec payloadCodec;
+
+    /**
+     * 任务所在的表，保存或从数据库加载时记录，为空时表示trigger_task
+     */
+    @JSONField(serialize = false)
+    private transient String tableName;
+
     /**
      * 创建时间
      */
@@ -77,4 +120,45 @@ public class TriggerTaskBaseEntity {
      */
     private LocalDateTime updatedAt;
 
+    /**
+     * 设置参数对象，由{@link com.robod.triggertask.storage.TriggerTaskStorage}保存时编码写入payload列
+     */
+    public void writePayload(Object payloadObject) {
+        this.payloadObject = payloadObject;
+        this.payload = null;
+    }
+
+    /**
+     * 读取参数对象，第一次读取时才解码，解码结果会缓存
+     */
+    @SuppressWarnings("unchecked")
+    public <P> P readPayload(Class<P> type) {
+        if (payloadObject != null && type.isInstance(payloadObject)) {
+            return (P) payloadObject;
+        }
+        if (payload == null) {
+            return null;
+        }
+        P decoded = (payloadCodec != null ? payloadCodec : TriggerTaskPayloadCodec.DEFAULT).decode(payload, type);
+        payloadObject = decoded;
+        return decoded;
+    }
+
+    /**
+     * 把待保存的参数对象编码到payload列，已经编码过时不重复编码
+     */
+    public void encodePayload(TriggerTaskPayloadCodec codec) {
+        this.payloadCodec = codec;
+        if (payloadObject != null && payload == null) {
+            payload = codec.encode(payloadObject);
+        }
+    }
+
+    /**
+     * 绑定解码payload使用的编解码器，执行器在任务交给处理器之前调用
+     */
+    public void bindPayloadCodec(TriggerTaskPayloadCodec codec) {
+        this.payloadCodec = codec;
+    }
+
 }
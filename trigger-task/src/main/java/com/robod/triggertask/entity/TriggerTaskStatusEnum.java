@@ -21,7 +21,12 @@ public enum TriggerTaskStatusEnum {
     /**
      * 正常结束
      */
-    END(2);
+    END(2),
+
+    /**
+     * 死信: 失败次数达到上限，不再重试
+     */
+    DEAD(3);
 
     private final Integer status;
 
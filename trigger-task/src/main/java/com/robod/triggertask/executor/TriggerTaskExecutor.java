@@ -1,14 +1,21 @@
 package com.robod.triggertask.executor;
 
 import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.TypeReference;
+import com.robod.triggertask.config.TriggerTaskProperties;
 import com.robod.triggertask.entity.TriggerTaskBaseEntity;
 import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import com.robod.triggertask.handler.BatchTriggerTaskHandler;
+import com.robod.triggertask.handler.BatchTriggerTaskResult;
 import com.robod.triggertask.handler.TriggerTaskHandler;
+import com.robod.triggertask.metrics.TriggerTaskMetrics;
+import com.robod.triggertask.payload.TriggerTaskPayloadCodec;
+import com.robod.triggertask.storage.TriggerTaskMdc;
+import com.robod.triggertask.storage.TriggerTaskReadyIndex;
+import com.robod.triggertask.storage.TriggerTaskTableRouter;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
@@ -17,18 +24,32 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-
-import static java.util.concurrent.Executors.newFixedThreadPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * @ClassName TriggerTaskExecutor
@@ -53,8 +74,129 @@ public class TriggerTaskExecutor<T extends TriggerTaskBaseEntity> implements Env
     @Resource
     private TransactionTemplate transactionTemplate;
 
-    private static final ExecutorService executor = newFixedThreadPool(10);
-    private static final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+    @Resource
+    private TriggerTaskProperties triggerTaskProperties;
+
+    @Resource
+    private TriggerTaskReadyIndex triggerTaskReadyIndex;
+
+    @Resource
+    private TriggerTaskPayloadCodec triggerTaskPayloadCodec;
+
+    @Resource
+    private TriggerTaskTableRouter triggerTaskTableRouter;
+
+    /**
+     * 没有引入Micrometer时不记录监控指标
+     */
+    @Autowired(required = false)
+    private TriggerTaskMetrics triggerTaskMetrics = TriggerTaskMetrics.NOOP;
+
+    /**
+     * 认领模式下当前实例的租约持有者标识
+     */
+    private String leaseOwner;
+
+    /**
+     * 按任务类型隔离的有界线程池，每个执行器实例独享
+     */
+    private TriggerTaskExecutorPool executorPool;
+
+    private TriggerTaskRetryPolicy retryPolicy;
+
+    /**
+     * 状态批量回写，未开启时为null
+     */
+    private TriggerTaskStatusWriter<T> statusWriter;
+
+    /**
+     * 按lockKey分配的串行通道，未开启时为null
+     */
+    private TriggerTaskLaneDispatcher<T> laneDispatcher;
+
+    /**
+     * 时间轮，未开启时为null
+     */
+    private TriggerTaskTimingWheel timingWheel;
+
+    private TriggerTaskPurger purger;
+
+    private TriggerTaskRateLimiter rateLimiter;
+
+    /**
+     * 执行前加载任务完整行，扫描未开启投影时为null
+     */
+    private TriggerTaskRowLoader<T> rowLoader;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+
+    /**
+     * 清理已结束任务的线程。清理按段停顿执行，可能持续到maxDuration，不能占用@Scheduled的调度线程，否则期间无法扫描任务
+     */
+    private final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "trigger-task-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean purging = new AtomicBoolean(false);
+
+    /**
+     * 自适应扫描的调度线程，未开启时为null。扫描可能持续较久，不和scheduledExecutorService共用线程
+     */
+    private ScheduledExecutorService scanScheduler;
+
+    /**
+     * 就绪索引对账的线程，未开启就绪索引时为null。对账要遍历整张表，不能占用scheduledExecutorService
+     */
+    private ScheduledExecutorService reconcileScheduler;
+
+    /**
+     * 自适应扫描当前的间隔
+     */
+    private final AtomicLong scanIntervalMillis = new AtomicLong();
+
+    /**
+     * 开启路由时并行扫描各任务表的线程池，未开启时为null
+     */
+    private ExecutorService scanPool;
+
+    /**
+     * 自适应扫描上一次扫描时线程池已满的任务类型，这些类型有空位之前不重新扫描
+     */
+    private volatile Set<String> lastSaturatedTaskTypes = Collections.emptySet();
+
+    private volatile long lastScanNanos;
+
+    /**
+     * 已提交到线程池、尚未执行结束的任务id。避免任务还在排队时被下一次扫描重复提交
+     */
+    private final Set<Long> runningTaskIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 任务在本地延后重新提交的次数
+     */
+    private final Map<Long, Integer> localRequeueCounts = new ConcurrentHashMap<>();
+
+    /**
+     * 获取lockKey分布式锁时锁被占用的次数
+     */
+    private final AtomicLong lockContentionCount = new AtomicLong();
+
+    /**
+     * 任务因超过限流没有提交的次数
+     */
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+
+    /**
+     * 任务被延后执行的次数
+     */
+    private final AtomicLong deferredCount = new AtomicLong();
+
+    /**
+     * 已到期未执行的任务数，定时查库刷新
+     */
+    private final AtomicLong backlogSize = new AtomicLong();
 
     private final Class<T> clazz;
 
@@ -62,6 +204,153 @@ public class TriggerTaskExecutor<T extends TriggerTaskBaseEntity> implements Env
         this.clazz = clazz;
     }
 
+    @PostConstruct
+    public void init() {
+        executorPool = new TriggerTaskExecutorPool(triggerTaskProperties.getExecutor(), triggerTaskProperties.getPriority(), triggerTaskMetrics);
+        retryPolicy = new TriggerTaskRetryPolicy(triggerTaskProperties.getRetry());
+        purger = new TriggerTaskPurger(triggerTaskProperties.getPurge(), jdbcTemplate, transactionTemplate, redissonClient,
+                environment.getProperty("spring.application.name") + ":trigger-task:purgeCursor", triggerTaskTableRouter.getTables());
+        rateLimiter = new TriggerTaskRateLimiter(triggerTaskProperties.getRateLimit(), redissonClient,
+                environment.getProperty("spring.application.name") + ":trigger-task:rateLimit:");
+        TriggerTaskProperties.Scan scan = triggerTaskProperties.getScan();
+        if (scan.isProjection()) {
+            rowLoader = new TriggerTaskRowLoader<>(scan.getLoadBatchSize(), scan.getLoadMaxWait(), this::loadExecutableRows);
+        }
+        if (triggerTaskProperties.getWriteBack().isEnabled()) {
+            statusWriter = new TriggerTaskStatusWriter<>(triggerTaskProperties.getWriteBack(), this::updateSuccessStatus, this::updateFailStatus,
+                    flushedList -> flushedList.forEach(task -> runningTaskIds.remove(task.getId())));
+        }
+        if (triggerTaskProperties.getLane().isEnabled()) {
+            laneDispatcher = new TriggerTaskLaneDispatcher<>(triggerTaskProperties.getLane(), (taskType, runnable) -> executorPool.offer(taskType, 0, runnable), this::drainLane, this::releaseRejected,
+                    scheduledExecutorService, triggerTaskProperties.getLock().getRequeueDelay());
+        }
+
+        if (triggerTaskProperties.isDispatchAfterCommit() && !triggerTaskProperties.getClaim().isEnabled()) {
+            // 保存任务的实例和扫描的实例会同时执行同一个任务
+            throw new IllegalStateException("trigger-task.dispatch-after-commit需要同时开启trigger-task.claim.enabled");
+        }
+
+        TriggerTaskProperties.TimingWheel timingWheelProperties = triggerTaskProperties.getTimingWheel();
+        if (timingWheelProperties.isEnabled()) {
+            if (!triggerTaskProperties.getClaim().isEnabled()) {
+                // 没有租约时各实例会把同一个到期任务各执行一次
+                throw new IllegalStateException("trigger-task.timing-wheel.enabled需要同时开启trigger-task.claim.enabled");
+            }
+            timingWheel = new TriggerTaskTimingWheel(timingWheelProperties, jdbcTemplate, triggerTaskTableRouter.getTables(),
+                    scheduledExecutorService, this::dispatchByIds);
+            scheduledExecutorService.scheduleWithFixedDelay(() -> {
+                try {
+                    timingWheel.refill();
+                } catch (Exception e) {
+                    log.error("时间轮加载任务异常", e);
+                }
+            }, 0, timingWheelProperties.getRefillInterval().toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        if (triggerTaskReadyIndex.isEnabled()) {
+            if (!triggerTaskProperties.getClaim().isEnabled()) {
+                // 宽限时间过后索引会再次交出仍在执行的任务，没有租约时会被重复执行
+                throw new IllegalStateException("trigger-task.ready-index.enabled需要同时开启trigger-task.claim.enabled");
+            }
+            long reconcileInterval = triggerTaskProperties.getReadyIndex().getReconcileInterval().toMillis();
+            reconcileScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "trigger-task-reconcile-" + clazz.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            reconcileScheduler.scheduleWithFixedDelay(this::reconcileReadyIndex, reconcileInterval, reconcileInterval, TimeUnit.MILLISECONDS);
+        }
+
+        if (triggerTaskTableRouter.isEnabled()) {
+            AtomicLong threadIndex = new AtomicLong();
+            scanPool = Executors.newFixedThreadPool(triggerTaskTableRouter.getTables().size(), r -> {
+                Thread thread = new Thread(r, "trigger-task-table-scan-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        if (scan.isAdaptive()) {
+            scanScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "trigger-task-scan-" + clazz.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scanIntervalMillis.set(scan.getMinInterval().toMillis());
+            lastScanNanos = System.nanoTime();
+            scanScheduler.schedule(this::adaptiveScan, scanIntervalMillis.get(), TimeUnit.MILLISECONDS);
+        }
+
+        if (triggerTaskMetrics != TriggerTaskMetrics.NOOP) {
+            bindMetrics();
+        }
+    }
+
+    private void bindMetrics() {
+        String entity = clazz.getSimpleName();
+        triggerTaskMetrics.gauge("backlog", entity, backlogSize::get);
+        triggerTaskMetrics.gauge("running", entity, runningTaskIds::size);
+        triggerTaskMetrics.counter("lock.contention", entity, lockContentionCount::get);
+        triggerTaskMetrics.counter("deferred", entity, deferredCount::get);
+        triggerTaskMetrics.counter("rate.limited", entity, rateLimitedCount::get);
+        if (laneDispatcher != null) {
+            triggerTaskMetrics.gauge("lane.pending", entity, laneDispatcher::getPendingCount);
+        }
+        if (timingWheel != null) {
+            triggerTaskMetrics.gauge("timing.wheel.pending", entity, timingWheel::size);
+        }
+        if (scanScheduler != null) {
+            triggerTaskMetrics.gauge("scan.interval", entity, scanIntervalMillis::get);
+        }
+
+        long refreshInterval = triggerTaskProperties.getMetrics().getBacklogRefreshInterval().toMillis();
+        scheduledExecutorService.scheduleWithFixedDelay(this::refreshBacklogSize, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 刷新已到期未执行的任务数
+     */
+    private void refreshBacklogSize() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            long total = 0L;
+            for (String table : triggerTaskTableRouter.getTables()) {
+                Long count = jdbcTemplate.queryForObject("select count(*) from " + table + " where task_status = ? and trigger_time <= ? and (next_retry_time is null or next_retry_time <= ?)",
+                        Long.class, TriggerTaskStatusEnum.NOT_END.getStatus(), now, now);
+                total += count == null ? 0L : count;
+            }
+            backlogSize.set(total);
+        } catch (Exception e) {
+            log.error("刷新积压任务数异常", e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scanScheduler != null) {
+            scanScheduler.shutdownNow();
+        }
+        if (reconcileScheduler != null) {
+            reconcileScheduler.shutdownNow();
+        }
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+        }
+        if (timingWheel != null) {
+            timingWheel.stop();
+        }
+        scheduledExecutorService.shutdownNow();
+        // 中断后清理会保存进度，下次从断点继续
+        purgeExecutor.shutdownNow();
+        executorPool.shutdown();
+        if (rowLoader != null) {
+            rowLoader.shutdown();
+        }
+        if (statusWriter != null) {
+            statusWriter.shutdown();
+        }
+    }
+
     /**
      * n秒后立即扫描一次任务表执行
      *
@@ -71,164 +360,1290 @@ public class TriggerTaskExecutor<T extends TriggerTaskBaseEntity> implements Env
         scheduledExecutorService.schedule(this::timeExec, second, TimeUnit.SECONDS);
     }
 
-    @Scheduled(cron = "0 0/10 * * * ?")
-    public void timeExec() {
-        String lockKey = environment.getProperty("spring.application.name") + ":trigger-task:timeExec";
+    /**
+     * 立即执行指定的任务，由{@link com.robod.triggertask.storage.TriggerTaskStorage}在事务提交后调用。
+     * 已到触发时间的任务直接提交执行，开启时间轮时未到触发时间的任务放入时间轮，执行器繁忙时留给定时扫描处理
+     *
+     * @param taskList 刚保存的任务，只用到id和触发时间
+     */
+    public void execImmediately(List<? extends TriggerTaskBaseEntity> taskList) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> dueTaskIds = new ArrayList<>();
+        for (TriggerTaskBaseEntity task : taskList) {
+            if (task.getTriggerTime() == null || !task.getTriggerTime().isAfter(now)) {
+                dueTaskIds.add(task.getId());
+            } else if (timingWheel != null) {
+                timingWheel.schedule(task.getId(), task.getTriggerTime());
+            }
+        }
+        if (dueTaskIds.isEmpty()) {
+            return;
+        }
 
-        RLock lock = redissonClient.getLock(lockKey);
         try {
-            // 尝试获取锁，获取成功才执行。保证一次只有一台实例能执行
-            boolean b = lock.tryLock();
-            if (b) {
-                exec();
+            scheduledExecutorService.execute(() -> dispatchByIds(dueTaskIds));
+        } catch (RejectedExecutionException e) {
+            log.warn("TriggerTaskExecutor已关闭, 任务留给定时扫描处理: {}", dueTaskIds);
+        }
+    }
+
+    /**
+     * 按id加载任务并提交执行。在公共调度线程上执行，线程池已满时不等待，没能提交的任务留给定时扫描处理
+     */
+    private void dispatchByIds(List<Long> taskIds) {
+        try {
+            List<T> skippedList = dispatch(loadTasks(taskIds), new HashSet<>(), false).skippedList;
+            if (!skippedList.isEmpty() && triggerTaskProperties.getClaim().isEnabled()) {
+                releaseLease(skippedList);
             }
         } catch (Exception e) {
-            log.error("timeExec异常", e);
-        } finally {
-            lock.unlock();
+            log.error("dispatchByIds异常", e);
         }
     }
 
-    private void exec() {
-        int failCountLimit = getFailCountLimit();
-
-        Long idLimit = 0L;
-        while (true) {
-            String sql = String.format(" select * from trigger_task where id > %d and task_status = %d and trigger_time <= '%s' %s order by id asc limit 200 ",
-                    idLimit, TriggerTaskStatusEnum.NOT_END.getStatus(), LocalDateTime.now(), failCountLimit < 3 ? "and fail_count <= " + failCountLimit : "");
-            log.info(sql);
-            List<T> taskList = jdbcTemplate.query(sql, new BeanPropertyRowMapper<>(clazz));
-
-            log.info("task.size: {}", taskList.size());
-
-            if (CollectionUtils.isEmpty(taskList)) {
+    /**
+     * 按id加载待执行的任务，认领模式下先为这些任务写入租约。开启路由时id可能在任意一张表中，逐表查找
+     */
+    private List<T> loadTasks(List<Long> taskIds) {
+        List<T> taskList = new ArrayList<>(taskIds.size());
+        for (String table : triggerTaskTableRouter.getTables()) {
+            taskList.addAll(loadTasks(table, taskIds));
+            if (taskList.size() >= taskIds.size()) {
                 break;
             }
+        }
+        return taskList;
+    }
 
-            idLimit = taskList.get(taskList.size() - 1).getId();
-            for (T task : taskList) {
-                executor.execute(() -> {
-                    // 设置MDC信息
-                    if (task.getMdc() != null && !task.getMdc().isEmpty()) {
-                        MDC.setContextMap(JSON.parseObject(task.getMdc(), new TypeReference<Map<String, String>>() {
-                        }.getType()));
-                    }
-
-                    TriggerTaskHandler<T> triggerTaskHandler = triggerTaskHandlerMap.get(task.getTaskType());
-                    if (triggerTaskHandler == null) {
-                        throw new RuntimeException("未找到对应的TriggerTaskHandler," + task.getTaskType());
-                    }
-
-                    log.info("开始执行TriggerTask: {}", JSON.toJSONString(task));
-                    handleTask(triggerTaskHandler, task);
-                    log.info("TriggerTask执行结束: {}", JSON.toJSONString(task));
-                });
+    private List<T> loadTasks(String table, List<Long> taskIds) {
+        LocalDateTime now = LocalDateTime.now();
+        if (triggerTaskProperties.getClaim().isEnabled()) {
+            String sql = String.format("update %s set lease_owner = ?, lease_expire_time = ? where id in (%s) and task_status = ? and trigger_time <= ? "
+                    + " and (next_retry_time is null or next_retry_time <= ?) and (lease_expire_time is null or lease_expire_time <= ?)", table, joinIds(taskIds));
+            int claimed = jdbcTemplate.update(sql, leaseOwner, now.plus(triggerTaskProperties.getClaim().getLeaseDuration()),
+                    TriggerTaskStatusEnum.NOT_END.getStatus(), now, now, now);
+            if (claimed == 0) {
+                return Collections.emptyList();
             }
+            return queryTasks(table, String.format(" select %s from %s where id in (%s) and lease_owner = ? and task_status = ? order by id asc ", scanColumns(), table, joinIds(taskIds)),
+                    leaseOwner, TriggerTaskStatusEnum.NOT_END.getStatus());
         }
 
-        cacheFailCountLimit(failCountLimit);
+        String sql = String.format(" select %s from %s where id in (%s) and task_status = ? and trigger_time <= ? and (next_retry_time is null or next_retry_time <= ?) order by id asc ",
+                scanColumns(), table, joinIds(taskIds));
+        return queryTasks(table, sql, TriggerTaskStatusEnum.NOT_END.getStatus(), now, now);
     }
 
     /**
-     * 失败次数限制。failCount等于0的，每次exec都会执行。failCount等于1的，隔一次执行一次。failCount等于2的，隔2次执行一次。failCount大于2的，隔3次执行一次。
+     * 查询任务并记录所在的表，之后更新状态、释放租约时按表更新
      */
-    private Integer getFailCountLimit() {
-        Integer failCountLimit = redissonClient.<Integer>getBucket(getFailCountLimitKey()).get();
-        return failCountLimit != null ? failCountLimit : 0;
+    private List<T> queryTasks(String table, String sql, Object... args) {
+        List<T> taskList = jdbcTemplate.query(sql, new BeanPropertyRowMapper<>(clazz), args);
+        taskList.forEach(task -> task.setTableName(table));
+        return taskList;
     }
 
-    private String getFailCountLimitKey() {
-        String applicationName = environment.getProperty("spring.application.name");
-        return applicationName + ":trigger-task:failCountLimit";
+    /**
+     * 扫描查询的列。开启投影时只查询分发用到的列，任务参数等到执行前再加载
+     */
+    private String scanColumns() {
+        return rowLoader != null ? "id, task_type, lock_key, trigger_time, next_retry_time, priority" : "*";
     }
 
-    private void cacheFailCountLimit(int failCountLimit) {
-        failCountLimit = ++failCountLimit % 4;  // 限制failCountLimit最大是3
-        redissonClient.<Integer>getBucket(getFailCountLimitKey()).set(failCountLimit, Duration.ofHours(1));
+    /**
+     * 按id加载任务完整行，只返回仍未结束的任务，认领模式下还要求租约仍由本实例持有。
+     * 扫描到执行之间任务可能已被执行完或被其他实例重新认领，这些任务不会再执行
+     */
+    private List<T> loadExecutableRows(List<T> taskList) {
+        List<T> rows = new ArrayList<>(taskList.size());
+        for (Map.Entry<String, List<T>> entry : triggerTaskTableRouter.groupByTable(taskList).entrySet()) {
+            String table = entry.getKey();
+            String sql = String.format(" select * from %s where id in (%s) and task_status = ? ", table, joinTaskIds(entry.getValue()));
+            if (triggerTaskProperties.getClaim().isEnabled()) {
+                rows.addAll(queryTasks(table, sql + " and lease_owner = ? order by id asc ", TriggerTaskStatusEnum.NOT_END.getStatus(), leaseOwner));
+            } else {
+                rows.addAll(queryTasks(table, sql + " order by id asc ", TriggerTaskStatusEnum.NOT_END.getStatus()));
+            }
+        }
+        return rows;
     }
 
-    @SuppressWarnings("all")
-    private void handleTask(TriggerTaskHandler triggerTaskHandler, T task) {
-        String lockKey = environment.getProperty("spring.application.name") + ":" + task.getLockKey();
-        RLock lock = null;
-
-        AtomicBoolean isExecuteFail = new AtomicBoolean(false);
+    /**
+     * 执行前加载单个任务的完整行，并发的加载请求由rowLoader合并查询
+     *
+     * @return 未开启投影时直接返回原任务，任务已不可执行或加载失败时返回null
+     */
+    private T loadRow(T task) {
+        if (rowLoader == null) {
+            return task;
+        }
         try {
-            // 加分布式锁
-            if (task.getLockKey() != null && !task.getLockKey().isEmpty()) {
-                lock = redissonClient.getLock(lockKey);
-                lock.lock();
+            T row = rowLoader.load(task);
+            if (row == null) {
+                log.info("触发任务已结束或不再由本实例持有, 跳过执行{}", task.getId());
             }
-            transactionTemplate.execute(status -> {
-                try {
-                    // 处理任务
-                    triggerTaskHandler.handleTask(task);
-
-                    // 更新状态
-                    task.setTaskStatus(TriggerTaskStatusEnum.END.getStatus());
-                    task.setUpdatedAt(LocalDateTime.now());
-
-                    String sql = String.format("update trigger_task set task_status = %d, updated_at = '%s'  where id = %d",
-                            TriggerTaskStatusEnum.END.getStatus(), LocalDateTime.now(), task.getId());
-                    log.info(sql);
-                    jdbcTemplate.update(sql);
-                    log.info("触发任务执行成功{},{}", task.getId(), task.getTaskType());
-                } catch (Exception e) {
-                    // 记录失败信息
-                    isExecuteFail.set(true);
-                    task.setTaskStatus(TriggerTaskStatusEnum.NOT_END.getStatus());
-                    task.setFailMsg(e.getMessage());
-                    task.setLastFailTime(LocalDateTime.now());
-                    task.setFailCount(task.getFailCount() + 1);
-                    task.setUpdatedAt(LocalDateTime.now());
+            return row;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            log.error("加载触发任务异常, 留给后续扫描处理{}", task.getId(), e);
+            return null;
+        }
+    }
 
-                    log.error("触发任务执行异常{}", task.getId(), e);
-                    status.setRollbackOnly();
+    /**
+     * 执行前批量加载任务完整行，顺序与传入的任务一致
+     *
+     * @return 未开启投影时直接返回原列表，已不可执行的任务不会返回，加载失败时返回空列表
+     */
+    private List<T> loadRows(List<T> taskList) {
+        if (rowLoader == null) {
+            return taskList;
+        }
+        try {
+            Map<Long, T> rowMap = new HashMap<>(taskList.size() * 2);
+            for (T row : loadExecutableRows(taskList)) {
+                rowMap.put(row.getId(), row);
+            }
+            List<T> rows = new ArrayList<>(rowMap.size());
+            for (T task : taskList) {
+                T row = rowMap.get(task.getId());
+                if (row != null) {
+                    rows.add(row);
+                } else {
+                    log.info("触发任务已结束或不再由本实例持有, 跳过执行{}", task.getId());
                 }
-                return true;
-            });
-        } catch (Exception e) {
-            log.error("分布式锁异常", e);
-        } finally {
-            if (isExecuteFail.get()) {
-                String sql = String.format("update trigger_task set task_status = %d, fail_msg = '%s', last_fail_time = '%s', fail_count =  %d, updated_at = '%s' where id = %d",
-                        TriggerTaskStatusEnum.NOT_END.getStatus(), task.getFailMsg(), task.getLastFailTime(), task.getFailCount(), task.getUpdatedAt(), task.getId());
-                log.info(sql);
-                jdbcTemplate.update(sql);
             }
+            return rows;
+        } catch (Exception e) {
+            log.error("批量加载触发任务异常, 留给后续扫描处理, size: {}", taskList.size(), e);
+            return Collections.emptyList();
+        }
+    }
 
-            // 释放锁
-            if (task.getLockKey() != null && !task.getLockKey().isEmpty()) {
-                lock.unlock();
+    public Class<T> getEntityClass() {
+        return clazz;
+    }
+
+    public long getLockContentionCount() {
+        return lockContentionCount.get();
+    }
+
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    @Scheduled(cron = "${trigger-task.scan.cron:0 0/10 * * * ?}")
+    public void timeExec() {
+        scanOnce();
+    }
+
+    /**
+     * 扫描一次任务表执行，异常或未拿到扫描锁时返回{@link ScanResult#EMPTY}
+     */
+    private ScanResult scanOnce() {
+        if (triggerTaskProperties.getClaim().isEnabled()) {
+            // 认领模式下每个实例各自认领互不相交的任务，不需要全局扫描锁
+            try {
+                return exec();
+            } catch (Exception e) {
+                log.error("timeExec异常", e);
             }
+            return ScanResult.EMPTY;
         }
-    }
 
-    @Scheduled(cron = "0 0 1 * * ? ")
-    public void timeClear() {
-        String lockKey = environment.getProperty("spring.application.name") + ":" + "trigger-task:timeClear";
-        RLock lock = redissonClient.getLock(lockKey);
+        String lockKey = environment.getProperty("spring.application.name") + ":trigger-task:timeExec";
 
+        RLock lock = redissonClient.getLock(lockKey);
         try {
             // 尝试获取锁，获取成功才执行。保证一次只有一台实例能执行
             boolean b = lock.tryLock();
             if (b) {
-                String sql = String.format("delete from trigger_task where task_status = %d and updated_at <= '%s'",
-                        TriggerTaskStatusEnum.END.getStatus(), LocalDateTime.now().minusMonths(1));
-                log.info(sql);
-                jdbcTemplate.update(sql);
+                return exec();
             }
         } catch (Exception e) {
             log.error("timeExec异常", e);
         } finally {
-            lock.unlock();
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
         }
+        return ScanResult.EMPTY;
     }
 
-    @Override
-    @SuppressWarnings("all")
-    public void setEnvironment(Environment environment) {
-        this.environment = environment;
+    /**
+     * 自适应扫描：扫到任务时按最小间隔再次扫描；线程池已满时等到有空位再扫描；扫不到任务时按倍数拉长间隔，直到最大间隔
+     */
+    private void adaptiveScan() {
+        TriggerTaskProperties.Scan scan = triggerTaskProperties.getScan();
+        long minMillis = scan.getMinInterval().toMillis();
+        long maxMillis = Math.max(minMillis, scan.getMaxInterval().toMillis());
+        long nextMillis = maxMillis;
+        try {
+            if (isWaitingForCapacity(maxMillis)) {
+                nextMillis = minMillis;
+                return;
+            }
+            ScanResult result = scanOnce();
+            lastScanNanos = System.nanoTime();
+            lastSaturatedTaskTypes = result.saturatedTaskTypes;
+            if (result.dispatched > 0 || !result.saturatedTaskTypes.isEmpty()) {
+                nextMillis = minMillis;
+            } else {
+                nextMillis = Math.min(maxMillis, Math.max(minMillis, (long) (scanIntervalMillis.get() * scan.getBackoffMultiplier())));
+            }
+        } catch (Exception e) {
+            log.error("自适应扫描异常", e);
+        } finally {
+            scanIntervalMillis.set(nextMillis);
+            try {
+                scanScheduler.schedule(this::adaptiveScan, nextMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 执行器正在关闭
+            }
+        }
+    }
+
+    /**
+     * 上次扫描时已满的线程池都还没有空位时暂不扫描，最多等到最大间隔
+     */
+    private boolean isWaitingForCapacity(long maxMillis) {
+        Set<String> saturatedTaskTypes = lastSaturatedTaskTypes;
+        if (saturatedTaskTypes.isEmpty() || System.nanoTime() - lastScanNanos >= TimeUnit.MILLISECONDS.toNanos(maxMillis)) {
+            return false;
+        }
+        return saturatedTaskTypes.stream().noneMatch(executorPool::hasCapacity);
+    }
+
+    private ScanResult exec() {
+        long start = System.nanoTime();
+        try {
+            if (triggerTaskReadyIndex.isEnabled()) {
+                return execFromReadyIndex();
+            } else {
+                return execFromTable();
+            }
+        } finally {
+            triggerTaskMetrics.recordScan(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 扫描任务表。开启路由时各表并行扫描，线程池已满的任务类型在各表之间共享
+     */
+    private ScanResult execFromTable() {
+        // 本轮扫描中线程池已满的任务类型，后续分页不再拉取，避免把积压的任务全部加载到内存
+        Set<String> saturatedTaskTypes = ConcurrentHashMap.newKeySet();
+        if (scanPool == null) {
+            return new ScanResult(execFromTable(TriggerTaskTableRouter.DEFAULT_TABLE, saturatedTaskTypes), saturatedTaskTypes);
+        }
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (String table : triggerTaskTableRouter.getTables()) {
+            futures.add(CompletableFuture.supplyAsync(() -> execFromTable(table, saturatedTaskTypes), scanPool));
+        }
+        int dispatched = 0;
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                dispatched += future.join();
+            } catch (Exception e) {
+                log.error("扫描任务表异常", e);
+            }
+        }
+        return new ScanResult(dispatched, saturatedTaskTypes);
+    }
+
+    /**
+     * 扫描一张任务表。开启优先级时先扫描等待过久的任务，再从高到低逐个优先级扫描
+     *
+     * @return 提交执行的任务数
+     */
+    private int execFromTable(String table, Set<String> saturatedTaskTypes) {
+        TriggerTaskProperties.Priority priority = triggerTaskProperties.getPriority();
+        if (!priority.isEnabled()) {
+            return execFromTable(table, new ScanCursor(), saturatedTaskTypes);
+        }
+        LocalDateTime starvedBefore = LocalDateTime.now().minus(priority.getStarvationThreshold());
+        int dispatched = execFromTable(table, new ScanCursor(" and trigger_time <= ? ", starvedBefore), saturatedTaskTypes);
+        for (int level = priority.getMaxPriority(); level >= 0; level--) {
+            dispatched += execFromTable(table, new ScanCursor(" and priority = ? ", level), saturatedTaskTypes);
+        }
+        return dispatched;
+    }
+
+    /**
+     * 按(trigger_time, id)游标分页扫描任务表，走(task_status, trigger_time, id, next_retry_time)索引，只会读到已到触发时间的任务，等待重试的任务在索引上过滤
+     *
+     * @return 提交执行的任务数
+     */
+    private int execFromTable(String table, ScanCursor cursor, Set<String> saturatedTaskTypes) {
+        boolean claimEnabled = triggerTaskProperties.getClaim().isEnabled();
+        int dispatched = 0;
+        while (true) {
+            String taskTypeCondition = excludeTaskTypeCondition(saturatedTaskTypes);
+            long pageStart = System.nanoTime();
+            List<T> taskList;
+            if (claimEnabled) {
+                taskList = claimTasks(table, cursor, taskTypeCondition);
+            } else {
+                LocalDateTime now = LocalDateTime.now();
+                List<Object> args = new ArrayList<>(Arrays.asList(TriggerTaskStatusEnum.NOT_END.getStatus(), now, now));
+                String sql = " select " + scanColumns() + " from " + table + " where task_status = ? and trigger_time <= ? and (next_retry_time is null or next_retry_time <= ?) "
+                        + cursor.condition(args) + taskTypeCondition + " order by trigger_time asc, id asc limit 200 ";
+                log.info(sql);
+                taskList = queryTasks(table, sql, args.toArray());
+                if (!taskList.isEmpty()) {
+                    T last = taskList.get(taskList.size() - 1);
+                    cursor.moveTo(last.getTriggerTime(), last.getId());
+                }
+            }
+
+            triggerTaskMetrics.recordScanPage(System.nanoTime() - pageStart, taskList.size());
+            log.info("task.size: {}", taskList.size());
+
+            if (CollectionUtils.isEmpty(taskList)) {
+                break;
+            }
+
+            // 线程池已满的任务留给后续扫描处理
+            DispatchResult<T> result = dispatch(taskList, saturatedTaskTypes, true);
+            List<T> skippedList = result.skippedList;
+            dispatched += result.submitted;
+
+            if (!skippedList.isEmpty()) {
+                log.warn("TriggerTask线程池已满或超过限流, 暂停拉取任务类型: {}, 跳过任务数: {}", saturatedTaskTypes, skippedList.size());
+                if (claimEnabled) {
+                    releaseLease(skippedList);
+                }
+            }
+        }
+        return dispatched;
+    }
+
+    /**
+     * 从Redis就绪索引弹出到期的任务id，按id加载后执行。线程池已满没能提交的任务放回索引等下次扫描
+     */
+    private ScanResult execFromReadyIndex() {
+        Set<String> saturatedTaskTypes = new HashSet<>();
+        int dispatched = 0;
+        while (true) {
+            long pageStart = System.nanoTime();
+            List<Long> taskIds = triggerTaskReadyIndex.pollDue(200);
+            log.info("ready index task.size: {}", taskIds.size());
+            if (taskIds.isEmpty()) {
+                triggerTaskMetrics.recordScanPage(System.nanoTime() - pageStart, 0);
+                break;
+            }
+
+            List<T> taskList = loadTasks(taskIds);
+            triggerTaskMetrics.recordScanPage(System.nanoTime() - pageStart, taskList.size());
+            DispatchResult<T> result = dispatch(taskList, saturatedTaskTypes, true);
+            List<T> skippedList = result.skippedList;
+            dispatched += result.submitted;
+            if (!skippedList.isEmpty()) {
+                log.warn("TriggerTask线程池已满或超过限流, 跳过任务数: {}", skippedList.size());
+                if (triggerTaskProperties.getClaim().isEnabled()) {
+                    releaseLease(skippedList);
+                }
+                LocalDateTime now = LocalDateTime.now();
+                skippedList.forEach(task -> triggerTaskReadyIndex.add(task.getId(), now));
+                break;
+            }
+        }
+        return new ScanResult(dispatched, saturatedTaskTypes);
+    }
+
+    /**
+     * 就绪索引对账，同一时间只有一个实例执行
+     */
+    private void reconcileReadyIndex() {
+        RLock lock = redissonClient.getLock(environment.getProperty("spring.application.name") + ":trigger-task:reconcileReadyIndex");
+        try {
+            if (lock.tryLock()) {
+                triggerTaskReadyIndex.reconcile();
+            }
+        } catch (Exception e) {
+            log.error("就绪索引对账异常", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 把一批任务提交到对应任务类型的线程池。BatchTriggerTaskHandler处理的任务按类型分批提交，其余任务逐个提交。
+     * 超过限流的任务不提交，留在表中等后续扫描，不计入失败次数。已经在本实例排队或执行中的任务既不算提交也不算跳过，也不占用限流令牌，
+     * 线程池已满没能提交的任务归还令牌
+     *
+     * @param saturatedTaskTypes 线程池已满或超过限流的任务类型，这些类型的任务直接跳过，提交失败的类型也会加进来
+     * @param wait               线程池已满时是否最多等待offerTimeout，只有扫描线程可以等待
+     * @return 新提交的任务数和没能提交的任务
+     */
+    private DispatchResult<T> dispatch(List<T> taskList, Set<String> saturatedTaskTypes, boolean wait) {
+        DispatchResult<T> result = new DispatchResult<>();
+        List<T> skippedList = result.skippedList;
+        Map<String, List<T>> batchTaskMap = new LinkedHashMap<>();
+        for (T task : taskList) {
+            if (saturatedTaskTypes.contains(task.getTaskType())) {
+                skippedList.add(task);
+            } else if (runningTaskIds.contains(task.getId())) {
+                // 已经在本实例排队或执行中
+                continue;
+            } else if (getBatchHandler(task) != null) {
+                batchTaskMap.computeIfAbsent(task.getTaskType(), k -> new ArrayList<>()).add(task);
+            } else if (!tryAcquireRate(task.getTaskType(), 1)) {
+                saturatedTaskTypes.add(task.getTaskType());
+                skippedList.add(task);
+            } else {
+                DispatchOutcome outcome = dispatch(task, wait);
+                if (outcome == DispatchOutcome.SUBMITTED) {
+                    result.submitted++;
+                } else {
+                    rateLimiter.release(task.getTaskType(), 1);
+                    if (outcome == DispatchOutcome.REJECTED) {
+                        saturatedTaskTypes.add(task.getTaskType());
+                        skippedList.add(task);
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<T>> entry : batchTaskMap.entrySet()) {
+            String taskType = entry.getKey();
+            List<T> tasks = entry.getValue();
+            int chunkSize = Math.max(1, triggerTaskProperties.getBatch().getTaskTypes().getOrDefault(taskType, triggerTaskProperties.getBatch().getChunkSize()));
+            // 一批的任务数不能超过限流的令牌桶容量，否则永远拿不到令牌
+            chunkSize = Math.min(chunkSize, rateLimiter.getMaxPermits(taskType));
+            for (int from = 0; from < tasks.size(); from += chunkSize) {
+                List<T> chunk = tasks.subList(from, Math.min(from + chunkSize, tasks.size()));
+                if (saturatedTaskTypes.contains(taskType) || !tryAcquireRate(taskType, chunk.size())) {
+                    saturatedTaskTypes.add(taskType);
+                    skippedList.addAll(chunk);
+                    continue;
+                }
+                int submitted = dispatchBatch(chunk, wait);
+                // 没有提交的任务归还令牌
+                rateLimiter.release(taskType, chunk.size() - Math.max(0, submitted));
+                if (submitted < 0) {
+                    saturatedTaskTypes.add(taskType);
+                    skippedList.addAll(chunk);
+                } else {
+                    result.submitted += submitted;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 为即将提交的任务获取限流令牌。Redis异常时放行，避免限流组件故障导致任务无法执行
+     */
+    private boolean tryAcquireRate(String taskType, int permits) {
+        try {
+            if (rateLimiter.tryAcquire(taskType, permits)) {
+                return true;
+            }
+        } catch (Exception e) {
+            log.error("TriggerTask获取限流令牌异常, 不限流执行: {}", taskType, e);
+            return true;
+        }
+        rateLimitedCount.addAndGet(permits);
+        return false;
+    }
+
+    /**
+     * 带lockKey的任务需要逐个加锁，不走批量处理
+     */
+    @SuppressWarnings("unchecked")
+    private BatchTriggerTaskHandler<T> getBatchHandler(T task) {
+        TriggerTaskHandler<T> triggerTaskHandler = triggerTaskHandlerMap.get(task.getTaskType());
+        if (triggerTaskHandler instanceof BatchTriggerTaskHandler && (task.getLockKey() == null || task.getLockKey().isEmpty())) {
+            return (BatchTriggerTaskHandler<T>) triggerTaskHandler;
+        }
+        return null;
+    }
+
+    /**
+     * 把同一类型的一批任务作为一个整体提交到线程池
+     *
+     * @return 新提交的任务数，已在本实例排队或执行中的任务不计入；线程池已满时返回-1
+     */
+    private int dispatchBatch(List<T> chunk, boolean wait) {
+        List<T> acceptedList = new ArrayList<>(chunk.size());
+        for (T task : chunk) {
+            // 跳过已经在本实例排队或执行中的任务
+            if (runningTaskIds.add(task.getId())) {
+                acceptedList.add(task);
+            }
+        }
+        if (acceptedList.isEmpty()) {
+            return 0;
+        }
+
+        T first = acceptedList.get(0);
+        int priority = acceptedList.stream().mapToInt(this::effectivePriority).max().orElse(0);
+        Runnable batchRunnable = () -> {
+            try {
+                List<T> rows = holdLease(loadRows(acceptedList));
+                if (rows.isEmpty()) {
+                    return;
+                }
+                log.info("开始批量执行TriggerTask: {}, size: {}", first.getTaskType(), rows.size());
+                handleBatch(getBatchHandler(first), rows);
+                log.info("TriggerTask批量执行结束: {}, size: {}", first.getTaskType(), rows.size());
+            } finally {
+                acceptedList.forEach(task -> releaseRunning(task.getId()));
+            }
+        };
+        boolean submitted = wait ? executorPool.submit(first.getTaskType(), priority, batchRunnable)
+                : executorPool.offer(first.getTaskType(), priority, batchRunnable);
+        if (!submitted) {
+            acceptedList.forEach(task -> runningTaskIds.remove(task.getId()));
+            return -1;
+        }
+        return acceptedList.size();
+    }
+
+    /**
+     * 把任务提交到对应任务类型的线程池
+     */
+    private DispatchOutcome dispatch(T task, boolean wait) {
+        if (!runningTaskIds.add(task.getId())) {
+            return DispatchOutcome.RUNNING;
+        }
+
+        boolean submitted;
+        if (laneDispatcher != null && task.getLockKey() != null && !task.getLockKey().isEmpty()) {
+            submitted = laneDispatcher.offer(task);
+        } else {
+            submitted = submit(task, wait);
+        }
+        if (!submitted) {
+            runningTaskIds.remove(task.getId());
+            return DispatchOutcome.REJECTED;
+        }
+        return DispatchOutcome.SUBMITTED;
+    }
+
+    /**
+     * 提交到线程池，调用方已把任务id加入runningTaskIds
+     *
+     * @param wait 线程池已满时是否最多等待offerTimeout
+     */
+    private boolean submit(T task, boolean wait) {
+        Runnable runnable = () -> {
+            boolean executed = true;
+            try {
+                T row = loadRow(task);
+                if (row != null && !holdLease(Collections.singletonList(row)).isEmpty()) {
+                    executed = runTask(row, false);
+                }
+            } finally {
+                if (executed) {
+                    releaseRunning(task.getId());
+                } else {
+                    defer(task, triggerTaskProperties.getLock().getRequeueDelay());
+                }
+                TriggerTaskMdc.clear();
+            }
+        };
+        int priority = effectivePriority(task);
+        return wait ? executorPool.submit(task.getTaskType(), priority, runnable) : executorPool.offer(task.getTaskType(), priority, runnable);
+    }
+
+    /**
+     * 提交到线程池时使用的优先级。到期后等待超过starvationThreshold的任务按最高优先级处理
+     */
+    private int effectivePriority(T task) {
+        TriggerTaskProperties.Priority priority = triggerTaskProperties.getPriority();
+        if (!priority.isEnabled()) {
+            return 0;
+        }
+        LocalDateTime dueTime = task.getNextRetryTime() != null ? task.getNextRetryTime() : task.getTriggerTime();
+        if (dueTime != null && dueTime.isBefore(LocalDateTime.now().minus(priority.getStarvationThreshold()))) {
+            return priority.getMaxPriority();
+        }
+        return task.getPriority() == null ? 0 : Math.max(0, Math.min(task.getPriority(), priority.getMaxPriority()));
+    }
+
+    /**
+     * 暂时不能执行的任务(例如分布式锁被占用)先在本地延后重新提交，释放执行线程去处理其他任务。
+     * 重新提交和扫描一样要先拿到限流令牌，超过限流时继续延后；本地延后次数超过上限后把下次执行时间写回数据库并释放任务，不计入失败次数
+     */
+    private void defer(T task, Duration delay) {
+        deferredCount.incrementAndGet();
+        int requeues = localRequeueCounts.merge(task.getId(), 1, Integer::sum);
+        if (requeues <= triggerTaskProperties.getLock().getMaxLocalRequeues()) {
+            try {
+                scheduledExecutorService.schedule(() -> {
+                    if (!tryAcquireRate(task.getTaskType(), 1)) {
+                        defer(task, delay);
+                    } else if (!submit(task, false)) {
+                        // 没有提交的任务归还令牌
+                        rateLimiter.release(task.getTaskType(), 1);
+                        deferToDb(task, triggerTaskProperties.getLock().getDeferDelay());
+                    }
+                }, delay.toMillis(), TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 执行器正在关闭
+            }
+        }
+        deferToDb(task, triggerTaskProperties.getLock().getDeferDelay());
+    }
+
+    private void deferToDb(T task, Duration delay) {
+        try {
+            LocalDateTime nextRetryTime = LocalDateTime.now().plus(delay);
+            if (triggerTaskProperties.getClaim().isEnabled()) {
+                jdbcTemplate.update("update " + triggerTaskTableRouter.tableOf(task) + " set next_retry_time = ?, lease_owner = null, lease_expire_time = null where id = ? and task_status = ? and lease_owner = ?",
+                        nextRetryTime, task.getId(), TriggerTaskStatusEnum.NOT_END.getStatus(), leaseOwner);
+            } else {
+                jdbcTemplate.update("update " + triggerTaskTableRouter.tableOf(task) + " set next_retry_time = ? where id = ? and task_status = ?",
+                        nextRetryTime, task.getId(), TriggerTaskStatusEnum.NOT_END.getStatus());
+            }
+            task.setNextRetryTime(nextRetryTime);
+            scheduleRetry(task);
+            log.info("触发任务延后执行{}, 下次执行时间: {}", task.getId(), nextRetryTime);
+        } catch (Exception e) {
+            log.error("触发任务延后执行异常{}", task.getId(), e);
+        } finally {
+            localRequeueCounts.remove(task.getId());
+            runningTaskIds.remove(task.getId());
+        }
+    }
+
+    /**
+     * 任务执行结束后不再算作执行中。开启状态批量回写时，结果写回前仍算作执行中，由写回线程释放
+     */
+    private void releaseRunning(Long taskId) {
+        localRequeueCounts.remove(taskId);
+        if (statusWriter == null || !statusWriter.isPending(taskId)) {
+            runningTaskIds.remove(taskId);
+        }
+    }
+
+    /**
+     * 在一次分布式锁内按顺序执行同一lockKey的一批任务
+     *
+     * @return 没有执行的任务
+     */
+    private List<T> drainLane(String lockKey, List<T> taskList) {
+        RLock lock = redissonClient.getLock(environment.getProperty("spring.application.name") + ":" + lockKey);
+        try {
+            if (!lock.tryLock(triggerTaskProperties.getLock().getWaitTime().toMillis(), TimeUnit.MILLISECONDS)) {
+                // 锁被其他实例占用，整批放回通道稍后重试
+                lockContentionCount.incrementAndGet();
+                log.info("分布式锁被占用, 通道延后执行{}, size: {}", lockKey, taskList.size());
+                return taskList;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return taskList;
+        }
+        try {
+            Set<Long> loadedIds = new HashSet<>();
+            for (T task : holdLease(loadRows(taskList))) {
+                loadedIds.add(task.getId());
+                try {
+                    runTask(task, true);
+                } catch (Exception e) {
+                    log.error("触发任务执行异常{}", task.getId(), e);
+                } finally {
+                    releaseRunning(task.getId());
+                    TriggerTaskMdc.clear();
+                }
+            }
+            // 没有加载到的任务已不可执行，同样释放
+            taskList.stream().filter(task -> !loadedIds.contains(task.getId())).forEach(task -> releaseRunning(task.getId()));
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * 串行通道因线程池已满丢弃的任务，释放后留给后续扫描处理
+     */
+    private void releaseRejected(List<T> taskList) {
+        if (taskList.isEmpty()) {
+            return;
+        }
+        taskList.forEach(task -> runningTaskIds.remove(task.getId()));
+        if (triggerTaskProperties.getClaim().isEnabled()) {
+            releaseLease(taskList);
+        }
+    }
+
+    /**
+     * @param lockHeld 调用方是否已持有该任务lockKey对应的分布式锁
+     * @return 分布式锁被占用没有执行时返回false
+     */
+    private boolean runTask(T task, boolean lockHeld) {
+        // 设置MDC信息
+        TriggerTaskMdc.restore(task.getMdc());
+
+        TriggerTaskHandler<T> triggerTaskHandler = triggerTaskHandlerMap.get(task.getTaskType());
+        if (triggerTaskHandler == null) {
+            throw new RuntimeException("未找到对应的TriggerTaskHandler," + task.getTaskType());
+        }
+
+        recordLag(task);
+        task.bindPayloadCodec(triggerTaskPayloadCodec);
+        log.info("开始执行TriggerTask: {}", JSON.toJSONString(task));
+        boolean executed = handleTask(triggerTaskHandler, task, lockHeld);
+        log.info("TriggerTask执行结束: {}", JSON.toJSONString(task));
+        return executed;
+    }
+
+    /**
+     * 任务从到期到开始执行的延迟，重试的任务以下次重试时间作为到期时间
+     */
+    private void recordLag(T task) {
+        LocalDateTime dueTime = task.getNextRetryTime() != null ? task.getNextRetryTime() : task.getTriggerTime();
+        if (dueTime != null) {
+            triggerTaskMetrics.recordLag(task.getTaskType(), Duration.between(dueTime, LocalDateTime.now()));
+        }
+    }
+
+    private String excludeTaskTypeCondition(Set<String> taskTypes) {
+        if (taskTypes.isEmpty()) {
+            return "";
+        }
+        return taskTypes.stream()
+                .map(taskType -> "'" + taskType.replace("'", "''") + "'")
+                .collect(Collectors.joining(",", " and task_type not in (", ") "));
+    }
+
+    /**
+     * 认领一批任务：在一个短事务中用FOR UPDATE SKIP LOCKED锁住未被其他实例持有租约的任务并写入租约，提交后再加载任务详情。
+     * 多个实例同时认领时会跳过彼此锁住的行，拿到的批次互不相交。实例宕机后租约到期，任务会被其他实例重新认领
+     */
+    private List<T> claimTasks(String table, ScanCursor cursor, String taskTypeCondition) {
+        TriggerTaskProperties.Claim claim = triggerTaskProperties.getClaim();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime leaseExpireTime = now.plus(claim.getLeaseDuration());
+
+        List<Long> idList = transactionTemplate.execute(status -> {
+            List<Object> args = new ArrayList<>(Arrays.asList(TriggerTaskStatusEnum.NOT_END.getStatus(), now, now, now));
+            String sql = " select id, trigger_time from " + table + " where task_status = ? and trigger_time <= ? and (next_retry_time is null or next_retry_time <= ?) "
+                    + " and (lease_expire_time is null or lease_expire_time <= ?) " + cursor.condition(args) + taskTypeCondition
+                    + " order by trigger_time asc, id asc limit ? for update skip locked ";
+            args.add(claim.getBatchSize());
+            List<Long> ids = new ArrayList<>();
+            jdbcTemplate.query(sql, rs -> {
+                ids.add(rs.getLong(1));
+                cursor.moveTo(rs.getTimestamp(2).toLocalDateTime(), rs.getLong(1));
+            }, args.toArray());
+            if (!ids.isEmpty()) {
+                jdbcTemplate.update(String.format("update %s set lease_owner = ?, lease_expire_time = ? where id in (%s)", table, joinIds(ids)),
+                        leaseOwner, leaseExpireTime);
+            }
+            return ids;
+        });
+
+        log.info("claim trigger task, table: {}, owner: {}, size: {}", table, leaseOwner, idList == null ? 0 : idList.size());
+        if (CollectionUtils.isEmpty(idList)) {
+            return Collections.emptyList();
+        }
+
+        String sql = String.format(" select %s from %s where id in (%s) and lease_owner = ? order by trigger_time asc, id asc ", scanColumns(), table, joinIds(idList));
+        return queryTasks(table, sql, leaseOwner);
+    }
+
+    /**
+     * 释放未能提交执行的任务的租约，让其他实例可以立即认领
+     */
+    private void releaseLease(List<T> taskList) {
+        for (Map.Entry<String, List<T>> entry : triggerTaskTableRouter.groupByTable(taskList).entrySet()) {
+            jdbcTemplate.update(String.format("update %s set lease_owner = null, lease_expire_time = null where id in (%s) and lease_owner = ?",
+                    entry.getKey(), joinTaskIds(entry.getValue())), leaseOwner);
+        }
+    }
+
+    /**
+     * 执行前确认并续期租约：只执行租约仍由本实例持有且未到期的任务，并把到期时间从现在起重新延长一个租约时长。
+     * 任务在本地排队、延后期间租约可能已到期并被其他实例重新认领，这些任务不再执行
+     *
+     * @return 仍由本实例持有租约的任务，顺序与传入的一致；未开启认领模式时直接返回原列表，续期失败时返回空列表
+     */
+    private List<T> holdLease(List<T> taskList) {
+        if (!triggerTaskProperties.getClaim().isEnabled() || taskList.isEmpty()) {
+            return taskList;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        // 取整到秒，避免数据库时间精度截断后回查不到刚续期的任务
+        LocalDateTime leaseExpireTime = now.plus(triggerTaskProperties.getClaim().getLeaseDuration()).withNano(0);
+        Set<Long> heldIds = new HashSet<>();
+        try {
+            for (Map.Entry<String, List<T>> entry : triggerTaskTableRouter.groupByTable(taskList).entrySet()) {
+                String ids = joinTaskIds(entry.getValue());
+                int renewed = jdbcTemplate.update(String.format("update %s set lease_expire_time = ? where id in (%s) and task_status = ? and lease_owner = ? and lease_expire_time > ?",
+                        entry.getKey(), ids), leaseExpireTime, TriggerTaskStatusEnum.NOT_END.getStatus(), leaseOwner, now);
+                if (renewed == entry.getValue().size()) {
+                    entry.getValue().forEach(task -> heldIds.add(task.getId()));
+                } else if (renewed > 0) {
+                    heldIds.addAll(jdbcTemplate.queryForList(String.format("select id from %s where id in (%s) and lease_owner = ? and lease_expire_time >= ?", entry.getKey(), ids),
+                            Long.class, leaseOwner, leaseExpireTime));
+                }
+            }
+        } catch (Exception e) {
+            log.error("续期触发任务租约异常, 留给后续扫描处理, size: {}", taskList.size(), e);
+            return Collections.emptyList();
+        }
+        List<T> heldList = new ArrayList<>(heldIds.size());
+        for (T task : taskList) {
+            if (heldIds.contains(task.getId())) {
+                heldList.add(task);
+            } else {
+                log.info("触发任务租约已到期或被其他实例重新认领, 跳过执行{}", task.getId());
+            }
+        }
+        return heldList;
+    }
+
+    private String joinIds(List<Long> ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private String joinTaskIds(List<T> taskList) {
+        return taskList.stream().map(task -> String.valueOf(task.getId())).collect(Collectors.joining(","));
+    }
+
+    /**
+     * @return 分布式锁被占用没有执行时返回false
+     */
+    @SuppressWarnings("all")
+    private boolean handleTask(TriggerTaskHandler triggerTaskHandler, T task, boolean lockHeld) {
+        String lockKey = environment.getProperty("spring.application.name") + ":" + task.getLockKey();
+        RLock lock = null;
+        boolean needLock = !lockHeld && task.getLockKey() != null && !task.getLockKey().isEmpty();
+
+        AtomicBoolean isExecuteFail = new AtomicBoolean(false);
+        AtomicBoolean isExecuteSuccess = new AtomicBoolean(false);
+        // 处理器执行成功，事务提交后才算执行成功
+        AtomicBoolean isHandled = new AtomicBoolean(false);
+        boolean claimEnabled = triggerTaskProperties.getClaim().isEnabled();
+        try {
+            // 加分布式锁
+            if (needLock) {
+                lock = redissonClient.getLock(lockKey);
+                long lockStart = System.nanoTime();
+                boolean locked = lock.tryLock(triggerTaskProperties.getLock().getWaitTime().toMillis(), TimeUnit.MILLISECONDS);
+                triggerTaskMetrics.recordLockWait(task.getTaskType(), System.nanoTime() - lockStart);
+                if (!locked) {
+                    lockContentionCount.incrementAndGet();
+                    log.info("分布式锁被占用, 任务延后执行{},{}", task.getId(), task.getLockKey());
+                    return false;
+                }
+            }
+            long txStart = System.nanoTime();
+            try {
+                transactionTemplate.execute(status -> {
+                    long handlerStart = System.nanoTime();
+                    try {
+                        // 处理任务
+                        triggerTaskHandler.handleTask(task);
+                        triggerTaskMetrics.recordHandler(task.getTaskType(), System.nanoTime() - handlerStart);
+
+                        // 更新状态
+                        task.setTaskStatus(TriggerTaskStatusEnum.END.getStatus());
+                        task.setUpdatedAt(LocalDateTime.now());
+
+                        if (statusWriter == null) {
+                            String sql = String.format("update %s set task_status = %d, dedup_key = null, updated_at = '%s'  where id = %d",
+                                    triggerTaskTableRouter.tableOf(task), TriggerTaskStatusEnum.END.getStatus(), LocalDateTime.now(), task.getId());
+                            log.info(sql);
+                            if (claimEnabled && jdbcTemplate.update(sql + " and lease_owner = ?", leaseOwner) == 0) {
+                                // 执行期间租约到期并被其他实例重新认领，回滚本次执行，由持有租约的实例执行
+                                log.warn("触发任务租约已被其他实例重新认领, 回滚本次执行{}", task.getId());
+                                status.setRollbackOnly();
+                                return false;
+                            } else if (!claimEnabled) {
+                                jdbcTemplate.update(sql);
+                            }
+                        }
+                        isHandled.set(true);
+                    } catch (Exception e) {
+                        // 记录失败信息
+                        triggerTaskMetrics.recordHandler(task.getTaskType(), System.nanoTime() - handlerStart);
+                        isExecuteFail.set(true);
+                        markFailed(task, e);
+
+                        log.error("触发任务执行异常{}", task.getId(), e);
+                        status.setRollbackOnly();
+                    }
+                    return true;
+                });
+            } catch (Exception e) {
+                if (!isExecuteFail.get()) {
+                    // 事务提交失败，处理器的操作已回滚，和处理器异常一样按失败重试
+                    isExecuteFail.set(true);
+                    markFailed(task, e);
+                    log.error("触发任务事务提交异常{}", task.getId(), e);
+                }
+            }
+            triggerTaskMetrics.recordTransaction(task.getTaskType(), System.nanoTime() - txStart);
+            if (isHandled.get() && !isExecuteFail.get()) {
+                isExecuteSuccess.set(true);
+                log.info("触发任务执行成功{},{}", task.getId(), task.getTaskType());
+            }
+        } catch (Exception e) {
+            log.error("分布式锁异常", e);
+        } finally {
+            if (isExecuteFail.get() || isExecuteSuccess.get()) {
+                triggerTaskMetrics.recordResult(task.getTaskType(), isExecuteSuccess.get() && !isExecuteFail.get(), 1);
+            }
+            if (isExecuteFail.get()) {
+                if (statusWriter != null) {
+                    statusWriter.submit(task);
+                } else {
+                    updateFailStatus(Collections.singletonList(task));
+                }
+            } else if (isExecuteSuccess.get() && statusWriter != null) {
+                // 处理器的事务已提交，状态交给后台线程批量写回
+                statusWriter.submit(task);
+            }
+
+            // 释放锁
+            if (needLock && lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 批量处理同一类型的任务：整批在一个事务中执行，成功的任务一次性更新状态，失败的任务按批记录失败信息。
+     * 处理器只标记部分任务失败时事务照常提交，失败任务已做的修改不会回滚，重试时会再执行一次
+     */
+    private void handleBatch(BatchTriggerTaskHandler<T> batchHandler, List<T> taskList) {
+        Map<Long, Throwable> failures = new HashMap<>();
+        String taskType = taskList.get(0).getTaskType();
+        taskList.forEach(this::recordLag);
+        taskList.forEach(task -> task.bindPayloadCodec(triggerTaskPayloadCodec));
+        long txStart = System.nanoTime();
+        try {
+            transactionTemplate.execute(status -> {
+                BatchTriggerTaskResult result;
+                long handlerStart = System.nanoTime();
+                try {
+                    result = batchHandler.handleTasks(taskList);
+                } catch (Exception e) {
+                    triggerTaskMetrics.recordHandler(taskType, System.nanoTime() - handlerStart);
+                    log.error("触发任务批量执行异常{}", taskList.get(0).getTaskType(), e);
+                    taskList.forEach(task -> failures.put(task.getId(), e));
+                    status.setRollbackOnly();
+                    return false;
+                }
+                triggerTaskMetrics.recordHandler(taskType, System.nanoTime() - handlerStart);
+
+                List<T> successList = new ArrayList<>();
+                for (T task : taskList) {
+                    if (result != null && result.isFailed(task.getId())) {
+                        failures.put(task.getId(), result.getFailure(task.getId()));
+                    } else {
+                        successList.add(task);
+                    }
+                }
+                if (!successList.isEmpty()) {
+                    if (statusWriter == null && updateSuccessStatus(successList) < successList.size()
+                            && triggerTaskProperties.getClaim().isEnabled()) {
+                        // 部分任务的租约已被其他实例重新认领，整批回滚，仍由本实例持有租约的任务按失败重试
+                        throw new IllegalStateException("触发任务租约已被其他实例重新认领");
+                    }
+                    LocalDateTime now = LocalDateTime.now();
+                    successList.forEach(task -> {
+                        task.setTaskStatus(TriggerTaskStatusEnum.END.getStatus());
+                        task.setUpdatedAt(now);
+                    });
+                }
+                log.info("触发任务批量执行完成{}, 成功: {}, 失败: {}", taskList.get(0).getTaskType(), successList.size(), failures.size());
+                return true;
+            });
+        } catch (Exception e) {
+            // 事务提交失败，整批回滚
+            log.error("触发任务批量执行事务异常{}", taskList.get(0).getTaskType(), e);
+            taskList.forEach(task -> failures.putIfAbsent(task.getId(), e));
+        }
+        triggerTaskMetrics.recordTransaction(taskType, System.nanoTime() - txStart);
+        triggerTaskMetrics.recordResult(taskType, true, taskList.size() - failures.size());
+        triggerTaskMetrics.recordResult(taskType, false, failures.size());
+
+        if (statusWriter != null) {
+            taskList.stream().filter(task -> !failures.containsKey(task.getId())).forEach(statusWriter::submit);
+        }
+        if (failures.isEmpty()) {
+            return;
+        }
+        List<T> failedList = new ArrayList<>(failures.size());
+        for (T task : taskList) {
+            Throwable cause = failures.get(task.getId());
+            if (cause != null) {
+                markFailed(task, cause);
+                failedList.add(task);
+            }
+        }
+        if (statusWriter != null) {
+            failedList.forEach(statusWriter::submit);
+        } else {
+            updateFailStatus(failedList);
+        }
+    }
+
+    /**
+     * 批量把任务更新为正常结束，同时清空dedupKey，之后可以再保存相同dedupKey的任务。
+     * 认领模式下只更新租约仍由本实例持有的任务
+     *
+     * @return 更新的行数
+     */
+    private int updateSuccessStatus(List<T> taskList) {
+        LocalDateTime now = LocalDateTime.now();
+        int updated = 0;
+        for (Map.Entry<String, List<T>> entry : triggerTaskTableRouter.groupByTable(taskList).entrySet()) {
+            String sql = String.format("update %s set task_status = ?, dedup_key = null, updated_at = ? where id in (%s)", entry.getKey(), joinTaskIds(entry.getValue()));
+            if (triggerTaskProperties.getClaim().isEnabled()) {
+                updated += jdbcTemplate.update(sql + " and lease_owner = ?", TriggerTaskStatusEnum.END.getStatus(), now, leaseOwner);
+            } else {
+                updated += jdbcTemplate.update(sql, TriggerTaskStatusEnum.END.getStatus(), now);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * 记录失败信息并按重试策略计算下次重试时间
+     */
+    private void markFailed(T task, Throwable cause) {
+        LocalDateTime now = LocalDateTime.now();
+        task.setFailMsg(cause != null ? cause.getMessage() : null);
+        task.setLastFailTime(now);
+        task.setFailCount(task.getFailCount() + 1);
+        task.setUpdatedAt(now);
+        if (retryPolicy.isExhausted(task.getTaskType(), task.getFailCount())) {
+            // 重试次数用完，进入死信状态，不再被扫描
+            task.setTaskStatus(TriggerTaskStatusEnum.DEAD.getStatus());
+            task.setNextRetryTime(null);
+        } else {
+            task.setTaskStatus(TriggerTaskStatusEnum.NOT_END.getStatus());
+            task.setNextRetryTime(retryPolicy.nextRetryTime(task.getTaskType(), task.getFailCount(), now));
+        }
+    }
+
+    /**
+     * 批量记录执行失败。认领模式下只更新租约仍由本实例持有的任务并释放租约，到下次重试时间后可被任意实例重新认领。
+     * 只更新仍未结束的任务，执行期间被新任务替换(已结束)的任务不再重试；进入死信的任务清空dedupKey
+     */
+    private void updateFailStatus(List<T> taskList) {
+        boolean claimEnabled = triggerTaskProperties.getClaim().isEnabled();
+        for (Map.Entry<String, List<T>> entry : triggerTaskTableRouter.groupByTable(taskList).entrySet()) {
+            String sql = "update " + entry.getKey() + " set task_status = ?, fail_msg = ?, last_fail_time = ?, fail_count = ?, next_retry_time = ?, updated_at = ?"
+                    + ", dedup_key = case when ? then null else dedup_key end"
+                    + (claimEnabled ? ", lease_owner = null, lease_expire_time = null" : "") + " where id = ? and task_status = ?"
+                    + (claimEnabled ? " and lease_owner = ?" : "");
+            jdbcTemplate.batchUpdate(sql, entry.getValue(), entry.getValue().size(), (ps, task) -> {
+                String failMsg = task.getFailMsg() != null && task.getFailMsg().length() > 1000 ? task.getFailMsg().substring(0, 1000) : task.getFailMsg();
+                ps.setInt(1, task.getTaskStatus());
+                ps.setString(2, failMsg);
+                ps.setObject(3, task.getLastFailTime());
+                ps.setInt(4, task.getFailCount());
+                ps.setObject(5, task.getNextRetryTime());
+                ps.setObject(6, task.getUpdatedAt());
+                ps.setBoolean(7, TriggerTaskStatusEnum.DEAD.getStatus().equals(task.getTaskStatus()));
+                ps.setLong(8, task.getId());
+                ps.setInt(9, TriggerTaskStatusEnum.NOT_END.getStatus());
+                if (claimEnabled) {
+                    ps.setString(10, leaseOwner);
+                }
+            });
+        }
+
+        for (T task : taskList) {
+            if (TriggerTaskStatusEnum.DEAD.getStatus().equals(task.getTaskStatus())) {
+                log.error("触发任务重试次数用完, 进入死信状态{},{},{}", task.getId(), task.getTaskType(), task.getFailCount());
+                continue;
+            }
+            scheduleRetry(task);
+        }
+    }
+
+    /**
+     * 按下次重试时间把任务放回就绪索引和时间轮
+     */
+    private void scheduleRetry(T task) {
+        if (triggerTaskReadyIndex.isEnabled()) {
+            triggerTaskReadyIndex.add(task.getId(), task.getNextRetryTime());
+        }
+        if (timingWheel != null) {
+            timingWheel.schedule(task.getId(), task.getNextRetryTime());
+        }
+    }
+
+    /**
+     * 一次扫描的结果，自适应扫描据此决定下次扫描的间隔
+     */
+    private static final class ScanResult {
+
+        private static final ScanResult EMPTY = new ScanResult(0, Collections.emptySet());
+
+        /**
+         * 提交执行的任务数
+         */
+        private final int dispatched;
+
+        /**
+         * 线程池已满的任务类型
+         */
+        private final Set<String> saturatedTaskTypes;
+
+        private ScanResult(int dispatched, Set<String> saturatedTaskTypes) {
+            this.dispatched = dispatched;
+            this.saturatedTaskTypes = saturatedTaskTypes;
+        }
+
+    }
+
+    /**
+     * 单个任务的提交结果
+     */
+    private enum DispatchOutcome {
+
+        /**
+         * 已提交到线程池或串行通道
+         */
+        SUBMITTED,
+
+        /**
+         * 已经在本实例排队或执行中，没有重复提交
+         */
+        RUNNING,
+
+        /**
+         * 线程池或串行通道已满
+         */
+        REJECTED
+
+    }
+
+    /**
+     * 一批任务的提交结果
+     */
+    private static final class DispatchResult<T> {
+
+        /**
+         * 新提交的任务数，已在本实例排队或执行中的任务不计入
+         */
+        private int submitted;
+
+        /**
+         * 线程池已满或超过限流没能提交的任务
+         */
+        private final List<T> skippedList = new ArrayList<>();
+
+    }
+
+    /**
+     * 扫描游标，按(trigger_time, id)分页，配合(task_status, trigger_time, id, next_retry_time)索引使用。
+     * 按优先级扫描时带上priority条件，配合(task_status, priority, trigger_time, id)索引使用
+     */
+    private static final class ScanCursor {
+
+        /**
+         * 每一页都带上的过滤条件
+         */
+        private final String filter;
+
+        private final Object[] filterArgs;
+
+        private LocalDateTime triggerTime;
+
+        private long id;
+
+        private ScanCursor() {
+            this("");
+        }
+
+        private ScanCursor(String filter, Object... filterArgs) {
+            this.filter = filter;
+            this.filterArgs = filterArgs;
+        }
+
+        /**
+         * 第一页没有游标条件，之后只取游标之后的任务
+         */
+        private String condition(List<Object> args) {
+            args.addAll(Arrays.asList(filterArgs));
+            if (triggerTime == null) {
+                return filter;
+            }
+            args.add(triggerTime);
+            args.add(triggerTime);
+            args.add(id);
+            return filter + " and (trigger_time > ? or (trigger_time = ? and id > ?)) ";
+        }
+
+        private void moveTo(LocalDateTime triggerTime, long id) {
+            this.triggerTime = triggerTime;
+            this.id = id;
+        }
+
+    }
+
+    @Scheduled(cron = "0 0 1 * * ? ")
+    public void timeClear() {
+        // 清理会持续较久，交给单独的线程，不占用@Scheduled的调度线程，上一次清理还没结束时跳过
+        if (!purging.compareAndSet(false, true)) {
+            log.info("上一次清理还没结束, 跳过本次清理");
+            return;
+        }
+        try {
+            purgeExecutor.execute(this::purge);
+        } catch (RejectedExecutionException e) {
+            purging.set(false);
+        }
+    }
+
+    private void purge() {
+        String lockKey = environment.getProperty("spring.application.name") + ":" + "trigger-task:timeClear";
+        RLock lock = redissonClient.getLock(lockKey);
+
+        try {
+            // 尝试获取锁，获取成功才执行。保证一次只有一台实例能执行
+            boolean b = lock.tryLock();
+            if (b) {
+                purger.purge();
+            }
+        } catch (Exception e) {
+            log.error("timeClear异常", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+            purging.set(false);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("all")
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+        this.leaseOwner = environment.getProperty("spring.application.name") + ":" + getHostName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
     }
 
 }
@@ -0,0 +1,274 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.metrics.TriggerTaskMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @ClassName TriggerTaskExecutorPool
+ * @Description 按任务类型隔离的有界线程池。每种任务类型一个线程池，某个类型执行慢只会占满自己的队列，不会拖住其他类型。
+ * 开启优先级后队列按优先级出队，并为高优先级的任务保留一部分容量
+ * @Author Robod
+ * @Date 2025/01/10 10:00
+ */
+@Slf4j
+class TriggerTaskExecutorPool {
+
+    private final TriggerTaskProperties.Executor properties;
+
+    private final TriggerTaskProperties.Priority priority;
+
+    private final TriggerTaskMetrics metrics;
+
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * 虚拟线程工厂，未开启虚拟线程或运行环境低于Java 21时为null
+     */
+    private final ThreadFactory virtualThreadFactory;
+
+    /**
+     * 提交顺序，同一优先级的任务按提交顺序出队
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    TriggerTaskExecutorPool(TriggerTaskProperties.Executor properties, TriggerTaskProperties.Priority priority, TriggerTaskMetrics metrics) {
+        this.properties = properties;
+        this.priority = priority;
+        this.metrics = metrics;
+        this.virtualThreadFactory = properties.isVirtualThreads() ? createVirtualThreadFactory() : null;
+    }
+
+    /**
+     * 按优先级0提交任务
+     */
+    boolean submit(String taskType, Runnable runnable) {
+        return submit(taskType, 0, runnable);
+    }
+
+    /**
+     * 提交任务。队列已满时最多等待offerTimeout，仍然没有空位则返回false，由调用方决定是否跳过。
+     * 剩余容量只够留给更高优先级的任务时直接返回false，不等待
+     */
+    boolean submit(String taskType, int taskPriority, Runnable runnable) {
+        return submit(taskType, taskPriority, runnable, properties.getOfferTimeout().toMillis());
+    }
+
+    /**
+     * 提交任务，队列已满时直接返回false，不等待。供不能被阻塞的公共调度线程使用
+     */
+    boolean offer(String taskType, int taskPriority, Runnable runnable) {
+        return submit(taskType, taskPriority, runnable, 0L);
+    }
+
+    private boolean submit(String taskType, int taskPriority, Runnable runnable, long timeoutMillis) {
+        Bulkhead bulkhead = bulkheads.computeIfAbsent(taskType, this::createBulkhead);
+        int reserved = bulkhead.reservedAbove(taskPriority);
+        try {
+            if (reserved > 0 || timeoutMillis <= 0) {
+                if (bulkhead.permits.availablePermits() <= reserved || !bulkhead.permits.tryAcquire()) {
+                    return false;
+                }
+            } else if (!bulkhead.permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            bulkhead.executor.execute(new PrioritizedTask(taskPriority, sequence.incrementAndGet(), () -> {
+                try {
+                    runnable.run();
+                } finally {
+                    bulkhead.permits.release();
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            bulkhead.permits.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 任务类型的线程池是否还有空位，还没有创建线程池的类型视为有空位
+     */
+    boolean hasCapacity(String taskType) {
+        Bulkhead bulkhead = bulkheads.get(taskType);
+        return bulkhead == null || bulkhead.permits.availablePermits() > 0;
+    }
+
+    void shutdown() {
+        bulkheads.values().forEach(Bulkhead::shutdown);
+        for (Map.Entry<String, Bulkhead> entry : bulkheads.entrySet()) {
+            try {
+                if (!entry.getValue().awaitTermination(30, TimeUnit.SECONDS)) {
+                    log.warn("TriggerTask线程池关闭超时: {}", entry.getKey());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Bulkhead createBulkhead(String taskType) {
+        TriggerTaskProperties.Pool pool = properties.getTaskTypes().getOrDefault(taskType, properties.getPool());
+        Bulkhead bulkhead = virtualThreadFactory != null ? new Bulkhead(pool.getMaxConcurrency())
+                : new Bulkhead(taskType, pool.getThreads(), pool.getQueueCapacity());
+        metrics.bindPool(taskType, bulkhead::getQueued, bulkhead::getActive);
+        return bulkhead;
+    }
+
+    /**
+     * 通过反射创建虚拟线程工厂，项目按Java 8编译，运行在Java 21+时才可用。
+     * 虚拟线程不继承InheritableThreadLocal，避免提交线程的MDC带到任务线程里
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, "trigger-task-virtual-", 1L);
+            builder = ofVirtualClass.getMethod("inheritInheritableThreadLocals", boolean.class).invoke(builder, false);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            log.warn("当前运行环境不支持虚拟线程, 使用平台线程池执行TriggerTask, java.version: {}", System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    private class Bulkhead {
+
+        private final Executor executor;
+
+        /**
+         * 平台线程模式下的线程池，虚拟线程模式下为null
+         */
+        private final ThreadPoolExecutor threadPool;
+
+        /**
+         * 平台线程模式下为线程数 + 队列容量，拿到许可才能提交，保证有界队列不会触发拒绝策略。虚拟线程模式下为最大并发数
+         */
+        private final Semaphore permits;
+
+        private final int capacity;
+
+        private Bulkhead(String taskType, int threads, int queueCapacity) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            ThreadFactory threadFactory = r -> {
+                Thread thread = new Thread(r, "trigger-task-" + taskType + "-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            // 许可数已经限制了排队的任务数，优先级队列不需要再设上限
+            BlockingQueue<Runnable> queue = priority.isEnabled() ? new PriorityBlockingQueue<>() : new ArrayBlockingQueue<>(queueCapacity);
+            this.threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, threadFactory);
+            this.threadPool.allowCoreThreadTimeOut(true);
+            this.executor = this.threadPool;
+            this.capacity = threads + queueCapacity;
+            this.permits = new Semaphore(capacity);
+        }
+
+        private Bulkhead(int maxConcurrency) {
+            this.threadPool = null;
+            this.executor = r -> virtualThreadFactory.newThread(r).start();
+            this.capacity = maxConcurrency;
+            this.permits = new Semaphore(capacity);
+        }
+
+        /**
+         * 为高于taskPriority的优先级保留的许可数
+         */
+        private int reservedAbove(int taskPriority) {
+            if (!priority.isEnabled() || priority.getReserved().isEmpty()) {
+                return 0;
+            }
+            double ratio = 0;
+            for (Map.Entry<Integer, Double> entry : priority.getReserved().entrySet()) {
+                if (entry.getKey() > taskPriority) {
+                    ratio += entry.getValue();
+                }
+            }
+            return (int) Math.ceil(Math.min(1.0, ratio) * capacity);
+        }
+
+        private int getQueued() {
+            return threadPool != null ? threadPool.getQueue().size() : 0;
+        }
+
+        /**
+         * 虚拟线程模式下已占用的许可数即为正在执行的任务数
+         */
+        private int getActive() {
+            return threadPool != null ? threadPool.getActiveCount() : capacity - permits.availablePermits();
+        }
+
+        private void shutdown() {
+            if (threadPool != null) {
+                threadPool.shutdown();
+            }
+        }
+
+        private boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            if (threadPool != null) {
+                return threadPool.awaitTermination(timeout, unit);
+            }
+            // 虚拟线程没有线程池可关闭，等所有许可归还即视为执行完毕
+            if (permits.tryAcquire(capacity, timeout, unit)) {
+                permits.release(capacity);
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * 优先级高的先出队，优先级相同时先提交的先出队
+     */
+    private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+        private final int priority;
+
+        private final long sequence;
+
+        private final Runnable runnable;
+
+        private PrioritizedTask(int priority, long sequence, Runnable runnable) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * @ClassName TriggerTaskLaneDispatcher
+ * @Description 按lockKey分配串行通道。同一个lockKey的任务进入同一条通道，按id顺序排队，
+ * 通道每次被调度时取出一批任务交给drainer，drainer只需加一次分布式锁即可连续执行这一批
+ * @Author Robod
+ * @Date 2025/02/04 10:00
+ */
+@Slf4j
+class TriggerTaskLaneDispatcher<T extends TriggerTaskBaseEntity> {
+
+    /**
+     * 执行一批同一lockKey的任务，返回没有执行的任务(例如分布式锁被其他实例占用)，这些任务会放回通道稍后重试
+     */
+    interface LaneDrainer<T> {
+
+        List<T> drain(String lockKey, List<T> tasks);
+
+    }
+
+    private final TriggerTaskProperties.Lane properties;
+
+    /**
+     * 把通道的一次调度提交到线程池，参数为任务类型和执行体，线程池已满时返回false
+     */
+    private final BiPredicate<String, Runnable> submitter;
+
+    private final LaneDrainer<T> drainer;
+
+    /**
+     * 通道被丢弃的任务(重新调度时线程池已满)，交给调用方释放
+     */
+    private final Consumer<List<T>> rejectedCallback;
+
+    /**
+     * 分布式锁被占用时延后重新调度通道
+     */
+    private final ScheduledExecutorService scheduler;
+
+    private final Duration requeueDelay;
+
+    private final Map<String, Lane<T>> lanes = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    TriggerTaskLaneDispatcher(TriggerTaskProperties.Lane properties, BiPredicate<String, Runnable> submitter,
+                              LaneDrainer<T> drainer, Consumer<List<T>> rejectedCallback,
+                              ScheduledExecutorService scheduler, Duration requeueDelay) {
+        this.properties = properties;
+        this.submitter = submitter;
+        this.drainer = drainer;
+        this.rejectedCallback = rejectedCallback;
+        this.scheduler = scheduler;
+        this.requeueDelay = requeueDelay;
+    }
+
+    /**
+     * 把任务放进对应lockKey的通道
+     *
+     * @return 排队任务数已达上限或线程池已满时返回false
+     */
+    boolean offer(T task) {
+        if (pendingCount.incrementAndGet() > properties.getMaxPendingTasks()) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+
+        String lockKey = task.getLockKey();
+        boolean[] needSchedule = new boolean[1];
+        lanes.compute(lockKey, (key, lane) -> {
+            if (lane == null) {
+                lane = new Lane<>();
+            }
+            lane.tasks.put(task.getId(), task);
+            if (!lane.scheduled) {
+                lane.scheduled = true;
+                needSchedule[0] = true;
+            }
+            return lane;
+        });
+
+        if (needSchedule[0] && !submitter.test(task.getTaskType(), () -> drain(lockKey))) {
+            // 线程池已满，撤回整条通道
+            List<T> removed = removeLane(lockKey);
+            removed.removeIf(t -> t.getId().equals(task.getId()));
+            rejectedCallback.accept(removed);
+            return false;
+        }
+        return true;
+    }
+
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private void drain(String lockKey) {
+        List<T> batch = new ArrayList<>();
+        lanes.computeIfPresent(lockKey, (key, lane) -> {
+            while (batch.size() < properties.getMaxDrainSize() && !lane.tasks.isEmpty()) {
+                batch.add(lane.tasks.pollFirstEntry().getValue());
+            }
+            return lane;
+        });
+
+        List<T> notExecuted = new ArrayList<>();
+        try {
+            if (!batch.isEmpty()) {
+                notExecuted.addAll(drainer.drain(lockKey, batch));
+            }
+        } catch (Exception e) {
+            log.error("TriggerTask通道执行异常{}", lockKey, e);
+        } finally {
+            pendingCount.addAndGet(notExecuted.size() - batch.size());
+            reschedule(lockKey, notExecuted);
+        }
+    }
+
+    /**
+     * 放回没有执行的任务，通道里还有任务时重新调度，否则移除通道。有任务没执行说明分布式锁被占用，延后requeueDelay再调度
+     */
+    private void reschedule(String lockKey, List<T> notExecuted) {
+        String[] taskType = new String[1];
+        lanes.computeIfPresent(lockKey, (key, lane) -> {
+            notExecuted.forEach(task -> lane.tasks.put(task.getId(), task));
+            if (lane.tasks.isEmpty()) {
+                return null;
+            }
+            taskType[0] = lane.tasks.firstEntry().getValue().getTaskType();
+            return lane;
+        });
+
+        if (taskType[0] == null) {
+            return;
+        }
+        if (notExecuted.isEmpty()) {
+            submitDrain(lockKey, taskType[0]);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> submitDrain(lockKey, taskType[0]), requeueDelay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            rejectedCallback.accept(removeLane(lockKey));
+        }
+    }
+
+    private void submitDrain(String lockKey, String taskType) {
+        if (!submitter.test(taskType, () -> drain(lockKey))) {
+            rejectedCallback.accept(removeLane(lockKey));
+        }
+    }
+
+    private List<T> removeLane(String lockKey) {
+        List<T> removed = new ArrayList<>();
+        lanes.computeIfPresent(lockKey, (key, lane) -> {
+            removed.addAll(lane.tasks.values());
+            return null;
+        });
+        pendingCount.addAndGet(-removed.size());
+        return removed;
+    }
+
+    private static class Lane<T> {
+
+        /**
+         * 按id排序的排队任务
+         */
+        private final TreeMap<Long, T> tasks = new TreeMap<>();
+
+        /**
+         * 是否已提交到线程池等待执行，通道存在期间一直为true，保证同一通道同时只有一个执行体
+         */
+        private boolean scheduled;
+
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import com.robod.triggertask.storage.TriggerTaskTableRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * @ClassName TriggerTaskPurger
+ * @Description 清理已结束和进入死信的任务，两者分别按各自的保留时长清理。按主键范围分段删除，每段之间停顿，进度保存在Redis中，中断或超时后下次从断点继续。
+ * 开启归档时同一事务内先复制到归档表再删除。开启路由时依次清理每张任务表，共用最长执行时间
+ * @Author Robod
+ * @Date 2025/01/23 10:00
+ */
+@Slf4j
+class TriggerTaskPurger {
+
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+
+    /**
+     * 进度的保存时长，超过后放弃断点，重新从最小id开始
+     */
+    private static final Duration CURSOR_TTL = Duration.ofDays(7);
+
+    private final TriggerTaskProperties.Purge properties;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final String cursorKey;
+
+    private final List<String> tables;
+
+    TriggerTaskPurger(TriggerTaskProperties.Purge properties, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                      RedissonClient redissonClient, String cursorKey, List<String> tables) {
+        if (properties.isArchiveEnabled() && !TABLE_NAME_PATTERN.matcher(properties.getArchiveTable()).matches()) {
+            throw new IllegalArgumentException("trigger-task.purge.archive-table不合法: " + properties.getArchiveTable());
+        }
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.redissonClient = redissonClient;
+        this.cursorKey = cursorKey;
+        this.tables = tables;
+    }
+
+    /**
+     * 调用方需持有全局锁，保证同一时间只有一个实例在清理
+     */
+    void purge() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minus(properties.getRetention());
+        LocalDateTime deadCutoff = now.minus(properties.getDeadRetention());
+        long deadline = System.nanoTime() + properties.getMaxDuration().toNanos();
+        for (String table : tables) {
+            if (!purge(table, cutoff, deadCutoff, deadline)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 清理一张表，进度按表分别保存
+     *
+     * @return 清理完成返回true，超时或被中断返回false
+     */
+    private boolean purge(String table, LocalDateTime cutoff, LocalDateTime deadCutoff, long deadline) {
+        String tableCursorKey = TriggerTaskTableRouter.DEFAULT_TABLE.equals(table) ? cursorKey : cursorKey + ":" + table;
+        RBucket<String> cursorBucket = redissonClient.getBucket(tableCursorKey, StringCodec.INSTANCE);
+
+        long cursor;
+        long endId;
+        String savedCursor = cursorBucket.get();
+        if (savedCursor != null) {
+            String[] parts = savedCursor.split(",");
+            cursor = Long.parseLong(parts[0]);
+            endId = Long.parseLong(parts[1]);
+            log.info("继续上次未完成的清理, 表: {}, 从id: {}, 到id: {}", table, cursor, endId);
+        } else {
+            Long minId = jdbcTemplate.queryForObject("select min(id) from " + table, Long.class);
+            Long maxId = jdbcTemplate.queryForObject("select max(id) from " + table, Long.class);
+            if (minId == null || maxId == null) {
+                return true;
+            }
+            cursor = minId;
+            endId = maxId;
+            log.info("开始清理已结束的任务, 表: {}, 从id: {}, 到id: {}, 截止时间: {}, 死信截止时间: {}", table, cursor, endId, cutoff, deadCutoff);
+        }
+
+        long startId = cursor;
+        long deleted = 0L;
+        int chunks = 0;
+        while (cursor <= endId) {
+            long toId = Math.min(cursor + properties.getChunkSize(), endId + 1);
+            deleted += purgeChunk(table, cursor, toId, cutoff, deadCutoff);
+            cursor = toId;
+            chunks++;
+
+            if (cursor > endId) {
+                break;
+            }
+            cursorBucket.set(cursor + "," + endId, CURSOR_TTL.toMillis(), TimeUnit.MILLISECONDS);
+            if (chunks % Math.max(1, properties.getProgressLogInterval()) == 0) {
+                log.info("清理进度, 表: {}, {}%, 当前id: {}, 到id: {}, 已删除: {}", table, (cursor - startId) * 100 / Math.max(1, endId - startId + 1), cursor, endId, deleted);
+            }
+            if (System.nanoTime() > deadline) {
+                log.warn("清理超过最长执行时间, 已保存进度, 下次从表{}的id: {} 继续, 已删除: {}", table, cursor, deleted);
+                return false;
+            }
+            try {
+                Thread.sleep(properties.getPauseBetweenChunks().toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("清理被中断, 已保存进度, 下次从表{}的id: {} 继续, 已删除: {}", table, cursor, deleted);
+                return false;
+            }
+        }
+
+        cursorBucket.delete();
+        log.info("清理完成, 表: {}, 已删除: {}", table, deleted);
+        return true;
+    }
+
+    /**
+     * 删除[fromId, toId)范围内已结束或进入死信且超过各自保留时长的任务
+     *
+     * @return 删除的行数
+     */
+    private int purgeChunk(String table, long fromId, long toId, LocalDateTime cutoff, LocalDateTime deadCutoff) {
+        String condition = " from " + table + " where id >= ? and id < ? "
+                + " and ((task_status = ? and updated_at <= ?) or (task_status = ? and updated_at <= ?)) ";
+        Object[] args = {fromId, toId, TriggerTaskStatusEnum.END.getStatus(), cutoff, TriggerTaskStatusEnum.DEAD.getStatus(), deadCutoff};
+        if (!properties.isArchiveEnabled()) {
+            return jdbcTemplate.update("delete" + condition, args);
+        }
+
+        Integer deleted = transactionTemplate.execute(s -> {
+            jdbcTemplate.update("insert into " + properties.getArchiveTable() + " select *" + condition, args);
+            return jdbcTemplate.update("delete" + condition, args);
+        });
+        return deleted == null ? 0 : deleted;
+    }
+
+}
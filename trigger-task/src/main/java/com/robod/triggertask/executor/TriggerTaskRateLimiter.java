@@ -0,0 +1,148 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RRateLimiter;
+import org.redisson.api.RateIntervalUnit;
+import org.redisson.api.RateLimiterConfig;
+import org.redisson.api.RateType;
+import org.redisson.api.RedissonClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName TriggerTaskRateLimiter
+ * @Description 按任务类型限流，所有实例共用Redis中的RRateLimiter。每次从Redis预取一批令牌放在本地发放，
+ * 本地还有令牌时不访问Redis，预取的令牌超过localTokenTtl没用完就作废
+ * @Author Robod
+ * @Date 2025/01/27 10:00
+ */
+@Slf4j
+class TriggerTaskRateLimiter {
+
+    private final TriggerTaskProperties.RateLimit properties;
+
+    private final RedissonClient redissonClient;
+
+    private final String keyPrefix;
+
+    private final Map<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * @param keyPrefix Redis key前缀，后面拼接任务类型
+     */
+    TriggerTaskRateLimiter(TriggerTaskProperties.RateLimit properties, RedissonClient redissonClient, String keyPrefix) {
+        this.properties = properties;
+        this.redissonClient = redissonClient;
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * 一次最多能获取的令牌数，没有配置限流的任务类型不限制
+     */
+    int getMaxPermits(String taskType) {
+        TriggerTaskProperties.RateLimitPolicy policy = properties.getTaskTypes().get(taskType);
+        if (policy == null) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, rateOf(policy));
+    }
+
+    /**
+     * 尝试为taskType的permits个任务获取令牌，没有配置限流的任务类型直接返回true
+     */
+    boolean tryAcquire(String taskType, int permits) {
+        TriggerTaskProperties.RateLimitPolicy policy = properties.getTaskTypes().get(taskType);
+        if (policy == null) {
+            return true;
+        }
+        return limiters.computeIfAbsent(taskType, k -> new Limiter(k, policy)).tryAcquire(permits);
+    }
+
+    /**
+     * 归还tryAcquire获取后没有用掉的令牌，例如线程池已满没能提交的任务。RRateLimiter不能归还令牌，放回本地令牌继续发放
+     */
+    void release(String taskType, int permits) {
+        Limiter limiter = limiters.get(taskType);
+        if (limiter != null && permits > 0) {
+            limiter.release(permits);
+        }
+    }
+
+    /**
+     * 令牌桶容量为burst，没有配置burst时取permitsPerSecond
+     */
+    private static long rateOf(TriggerTaskProperties.RateLimitPolicy policy) {
+        return policy.getBurst() > 0 ? policy.getBurst() : (long) Math.max(1, Math.ceil(policy.getPermitsPerSecond()));
+    }
+
+    private class Limiter {
+
+        private final RRateLimiter rateLimiter;
+
+        /**
+         * 令牌桶容量，即一个限流周期内的令牌数
+         */
+        private final long rate;
+
+        private long localTokens;
+
+        private long localTokensExpireAt;
+
+        private Limiter(String taskType, TriggerTaskProperties.RateLimitPolicy policy) {
+            if (policy.getPermitsPerSecond() <= 0) {
+                throw new IllegalArgumentException("trigger-task.rate-limit.task-types." + taskType + ".permits-per-second必须大于0");
+            }
+            // 按permitsPerSecond的速度补充令牌，即每rate/permitsPerSecond秒补满一次
+            this.rate = rateOf(policy);
+            long rateIntervalMillis = Math.max(1L, (long) (rate * 1000 / policy.getPermitsPerSecond()));
+            this.rateLimiter = redissonClient.getRateLimiter(keyPrefix + taskType);
+            if (!rateLimiter.trySetRate(RateType.OVERALL, rate, rateIntervalMillis, RateIntervalUnit.MILLISECONDS)) {
+                RateLimiterConfig config = rateLimiter.getConfig();
+                if (config.getRate() != rate || config.getRateInterval() != rateIntervalMillis) {
+                    log.info("TriggerTask限流配置变更, 任务类型: {}, rate: {}, rateInterval: {}ms", taskType, rate, rateIntervalMillis);
+                    rateLimiter.setRate(RateType.OVERALL, rate, rateIntervalMillis, RateIntervalUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private synchronized boolean tryAcquire(int permits) {
+            long now = System.nanoTime();
+            if (now - localTokensExpireAt > 0) {
+                localTokens = 0;
+            }
+            if (localTokens >= permits) {
+                localTokens -= permits;
+                return true;
+            }
+
+            // 本地令牌不够时从Redis预取，一次最多取一个周期的令牌数
+            long need = permits - localTokens;
+            if (need > rate) {
+                return false;
+            }
+            long prefetch = Math.min(rate, Math.max(need, properties.getLocalBatch()));
+            long acquired;
+            if (rateLimiter.tryAcquire(prefetch)) {
+                acquired = prefetch;
+            } else if (prefetch > need && rateLimiter.tryAcquire(need)) {
+                acquired = need;
+            } else {
+                return false;
+            }
+            localTokens = localTokens + acquired - permits;
+            localTokensExpireAt = now + properties.getLocalTokenTtl().toNanos();
+            return true;
+        }
+
+        private synchronized void release(int permits) {
+            // 本地令牌已作废时归还的令牌同样作废
+            if (System.nanoTime() - localTokensExpireAt <= 0) {
+                localTokens += permits;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @ClassName TriggerTaskRetryPolicy
+ * @Description 失败重试策略。指数退避 + 随机抖动，失败次数达到上限后进入死信状态
+ * @Author Robod
+ * @Date 2025/01/21 10:00
+ */
+class TriggerTaskRetryPolicy {
+
+    private final TriggerTaskProperties.Retry properties;
+
+    TriggerTaskRetryPolicy(TriggerTaskProperties.Retry properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * 失败failCount次后是否已用完重试次数
+     */
+    boolean isExhausted(String taskType, int failCount) {
+        return failCount >= getPolicy(taskType).getMaxAttempts();
+    }
+
+    /**
+     * 第failCount次失败后的下次重试时间
+     */
+    LocalDateTime nextRetryTime(String taskType, int failCount, LocalDateTime failTime) {
+        TriggerTaskProperties.RetryPolicy policy = getPolicy(taskType);
+        double interval = policy.getInitialInterval().toMillis() * Math.pow(policy.getMultiplier(), Math.max(0, failCount - 1));
+        interval = Math.min(interval, policy.getMaxInterval().toMillis());
+        if (policy.getJitter() > 0) {
+            interval *= 1 + ThreadLocalRandom.current().nextDouble(-policy.getJitter(), policy.getJitter());
+        }
+        return failTime.plusNanos((long) interval * 1_000_000L);
+    }
+
+    private TriggerTaskProperties.RetryPolicy getPolicy(String taskType) {
+        return properties.getTaskTypes().getOrDefault(taskType, properties.getPolicy());
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * @ClassName TriggerTaskRowLoader
+ * @Description 执行前加载任务完整行。各执行线程的加载请求合并成一条 id in (...) 查询，查不到的任务(已结束或被其他实例认领)返回null
+ * @Author Robod
+ * @Date 2025/01/25 10:00
+ */
+@Slf4j
+class TriggerTaskRowLoader<T extends TriggerTaskBaseEntity> {
+
+    /**
+     * 等待加载结果的最长时间，超时按加载失败处理，任务留给后续扫描
+     */
+    private static final long LOAD_TIMEOUT_SECONDS = 30;
+
+    private final int batchSize;
+
+    private final long maxWaitNanos;
+
+    private final Function<List<T>, List<T>> batchLoader;
+
+    private final BlockingQueue<Request<T>> requests = new LinkedBlockingQueue<>();
+
+    private final Thread loaderThread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param batchSize   一次最多加载的任务数
+     * @param maxWait     凑批时最多等待的时间
+     * @param batchLoader 按扫描到的任务批量加载完整行，只返回仍可执行的任务
+     */
+    TriggerTaskRowLoader(int batchSize, Duration maxWait, Function<List<T>, List<T>> batchLoader) {
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitNanos = maxWait.toNanos();
+        this.batchLoader = batchLoader;
+        this.loaderThread = new Thread(this::run, "trigger-task-row-loader");
+        this.loaderThread.setDaemon(true);
+        this.loaderThread.start();
+    }
+
+    /**
+     * 加载任务完整行，阻塞到所在批次查询结束
+     *
+     * @return 任务已不可执行时返回null
+     */
+    T load(T task) throws Exception {
+        if (!running) {
+            throw new IllegalStateException("TriggerTaskRowLoader已关闭");
+        }
+        Request<T> request = new Request<>(task);
+        requests.add(request);
+        try {
+            return request.future.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            request.future.cancel(false);
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        loaderThread.interrupt();
+        Request<T> request;
+        while ((request = requests.poll()) != null) {
+            request.future.completeExceptionally(new IllegalStateException("TriggerTaskRowLoader已关闭"));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            List<Request<T>> batch = new ArrayList<>(batchSize);
+            try {
+                batch.add(requests.take());
+                // 第一个请求到达后再等一小段时间，把同时到达的请求凑成一批
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < batchSize) {
+                    Request<T> request = requests.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                }
+                requests.drainTo(batch, batchSize - batch.size());
+            } catch (InterruptedException e) {
+                batch.forEach(request -> request.future.completeExceptionally(e));
+                Thread.currentThread().interrupt();
+                return;
+            }
+            loadBatch(batch);
+        }
+    }
+
+    private void loadBatch(List<Request<T>> batch) {
+        List<T> tasks = new ArrayList<>(batch.size());
+        for (Request<T> request : batch) {
+            if (!request.future.isDone()) {
+                tasks.add(request.task);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        try {
+            Map<Long, T> taskMap = new HashMap<>(tasks.size() * 2);
+            for (T task : batchLoader.apply(tasks)) {
+                taskMap.put(task.getId(), task);
+            }
+            batch.forEach(request -> request.future.complete(taskMap.get(request.task.getId())));
+        } catch (Exception e) {
+            log.error("批量加载任务异常, size: {}", tasks.size(), e);
+            batch.forEach(request -> request.future.completeExceptionally(e));
+        }
+    }
+
+    private static class Request<T extends TriggerTaskBaseEntity> {
+
+        private final T task;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Request(T task) {
+            this.task = task;
+        }
+
+    }
+
+}
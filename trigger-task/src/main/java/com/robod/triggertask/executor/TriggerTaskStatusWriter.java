@@ -0,0 +1,152 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @ClassName TriggerTaskStatusWriter
+ * @Description 任务状态批量回写。多个执行线程的执行结果先进入有界缓冲，由后台线程按数量或时间合并写回。
+ * 写回完成前任务id仍算作执行中，不会被本实例的扫描重复提交；写回前实例宕机或写回失败，任务保持未结束状态，之后会被再次执行
+ * @Author Robod
+ * @Date 2025/01/28 10:00
+ */
+@Slf4j
+class TriggerTaskStatusWriter<T extends TriggerTaskBaseEntity> {
+
+    private final TriggerTaskProperties.WriteBack properties;
+
+    private final BlockingQueue<T> buffer;
+
+    /**
+     * 已进入缓冲、尚未写回的任务id
+     */
+    private final Set<Long> pendingIds = ConcurrentHashMap.newKeySet();
+
+    private final Consumer<List<T>> successFlusher;
+
+    private final Consumer<List<T>> failFlusher;
+
+    /**
+     * 写回结束(无论成功失败)后的回调，用于释放执行中的任务id
+     */
+    private final Consumer<List<T>> flushedCallback;
+
+    private final Thread flushThread;
+
+    private volatile boolean running = true;
+
+    TriggerTaskStatusWriter(TriggerTaskProperties.WriteBack properties, Consumer<List<T>> successFlusher,
+                            Consumer<List<T>> failFlusher, Consumer<List<T>> flushedCallback) {
+        this.properties = properties;
+        this.buffer = new LinkedBlockingQueue<>(properties.getBufferCapacity());
+        this.successFlusher = successFlusher;
+        this.failFlusher = failFlusher;
+        this.flushedCallback = flushedCallback;
+        this.flushThread = new Thread(this::run, "trigger-task-status-writer");
+        this.flushThread.setDaemon(true);
+        this.flushThread.start();
+    }
+
+    /**
+     * 提交执行结果，缓冲已满时等待
+     */
+    void submit(T task) {
+        pendingIds.add(task.getId());
+        try {
+            buffer.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendingIds.remove(task.getId());
+            throw new IllegalStateException("TriggerTask状态写回被中断: " + task.getId(), e);
+        }
+    }
+
+    boolean isPending(Long taskId) {
+        return pendingIds.contains(taskId);
+    }
+
+    /**
+     * 停止后台线程并把缓冲中剩余的结果写回
+     */
+    void shutdown() {
+        running = false;
+        flushThread.interrupt();
+        try {
+            flushThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<T> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        flush(remaining);
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(properties.getMaxBatchSize());
+        while (running) {
+            try {
+                long deadline = System.nanoTime() + properties.getFlushInterval().toNanos();
+                while (batch.size() < properties.getMaxBatchSize()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    T task = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (task == null) {
+                        break;
+                    }
+                    batch.add(task);
+                    buffer.drainTo(batch, properties.getMaxBatchSize() - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // shutdown时中断，剩余的结果由shutdown写回
+            }
+            flush(batch);
+            batch = new ArrayList<>(properties.getMaxBatchSize());
+        }
+    }
+
+    private void flush(List<T> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<T> successList = new ArrayList<>();
+        List<T> failedList = new ArrayList<>();
+        for (T task : batch) {
+            if (TriggerTaskStatusEnum.END.getStatus().equals(task.getTaskStatus())) {
+                successList.add(task);
+            } else {
+                failedList.add(task);
+            }
+        }
+
+        try {
+            if (!successList.isEmpty()) {
+                successFlusher.accept(successList);
+            }
+            if (!failedList.isEmpty()) {
+                failFlusher.accept(failedList);
+            }
+            log.debug("TriggerTask状态写回, 成功: {}, 失败: {}", successList.size(), failedList.size());
+        } catch (Exception e) {
+            // 写回失败的任务保持未结束状态，之后会被再次执行
+            log.error("TriggerTask状态写回失败, 成功: {}, 失败: {}", successList.size(), failedList.size(), e);
+        } finally {
+            batch.forEach(task -> pendingIds.remove(task.getId()));
+            flushedCallback.accept(batch);
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * @ClassName TriggerTaskTimingWheel
+ * @Description 时间轮。按触发时间预加载未来一个窗口内的任务，到点后交给执行器执行，任务数量有上限，按(trigger_time, id)游标增量加载，
+ * 开启路由时每张表各自维护游标。各实例预加载的任务相同，到期后由执行器按认领模式写入租约，只有拿到租约的实例执行
+ * @Author Robod
+ * @Date 2025/01/14 10:00
+ */
+@Slf4j
+class TriggerTaskTimingWheel {
+
+    private final TriggerTaskProperties.TimingWheel properties;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 执行到期任务的线程，不能占用时间轮自己的工作线程
+     */
+    private final Executor dispatchExecutor;
+
+    private final Consumer<List<Long>> dueTaskConsumer;
+
+    private final HashedWheelTimer timer;
+
+    private final Map<Long, Timeout> pendingTimeouts = new ConcurrentHashMap<>();
+
+    private final Queue<Long> dueTaskIds = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /**
+     * 每张表已加载到的游标
+     */
+    private final Map<String, Cursor> cursors = new LinkedHashMap<>();
+
+    TriggerTaskTimingWheel(TriggerTaskProperties.TimingWheel properties, JdbcTemplate jdbcTemplate, List<String> tables,
+                           Executor dispatchExecutor, Consumer<List<Long>> dueTaskConsumer) {
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        tables.forEach(table -> cursors.put(table, new Cursor()));
+        this.dispatchExecutor = dispatchExecutor;
+        this.dueTaskConsumer = dueTaskConsumer;
+        this.timer = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, "trigger-task-timing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        }, properties.getTickDuration().toMillis(), TimeUnit.MILLISECONDS, properties.getTicksPerWheel(), true, properties.getMaxPending());
+    }
+
+    /**
+     * 从数据库增量加载预加载窗口内的任务，已加载的部分不会重复查询
+     */
+    synchronized void refill() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime horizon = now.plus(properties.getPreloadWindow());
+        for (Map.Entry<String, Cursor> entry : cursors.entrySet()) {
+            refill(entry.getKey(), entry.getValue(), now, horizon);
+        }
+    }
+
+    private void refill(String table, Cursor cursor, LocalDateTime now, LocalDateTime horizon) {
+        if (cursor.triggerTime == null || cursor.triggerTime.isBefore(now)) {
+            // 已经到期的任务交给扫描处理
+            cursor.triggerTime = now;
+            cursor.id = 0L;
+        }
+
+        int capacity = properties.getMaxPending() - pendingTimeouts.size();
+        if (capacity <= 0 || !cursor.triggerTime.isBefore(horizon)) {
+            return;
+        }
+
+        String sql = " select id, trigger_time from " + table + " where task_status = ? and (trigger_time > ? or (trigger_time = ? and id > ?)) and trigger_time <= ? "
+                + " order by trigger_time asc, id asc limit ? ";
+        List<Object[]> rows = jdbcTemplate.query(sql, (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getTimestamp(2)},
+                TriggerTaskStatusEnum.NOT_END.getStatus(), cursor.triggerTime, cursor.triggerTime, cursor.id, horizon, capacity);
+        for (Object[] row : rows) {
+            schedule((Long) row[0], ((Timestamp) row[1]).toLocalDateTime());
+        }
+
+        if (rows.size() < capacity) {
+            // 窗口内的任务已全部加载
+            cursor.triggerTime = horizon;
+            cursor.id = Long.MAX_VALUE;
+        } else {
+            Object[] last = rows.get(rows.size() - 1);
+            cursor.triggerTime = ((Timestamp) last[1]).toLocalDateTime();
+            cursor.id = (Long) last[0];
+        }
+        log.info("时间轮加载任务数: {}, 表: {}, 待触发任务数: {}, 已加载到: {}", rows.size(), table, pendingTimeouts.size(), cursor.triggerTime);
+    }
+
+    /**
+     * 加入时间轮。超出预加载窗口或时间轮已满时返回false，留给后续增量加载或扫描处理
+     */
+    boolean schedule(Long taskId, LocalDateTime triggerTime) {
+        LocalDateTime now = LocalDateTime.now();
+        if (triggerTime.isAfter(now.plus(properties.getPreloadWindow())) || pendingTimeouts.size() >= properties.getMaxPending()) {
+            return false;
+        }
+
+        // datetime字段精确到秒，向上取整到秒，避免提前触发时数据库中的触发时间还没到
+        LocalDateTime deadline = triggerTime.getNano() > 0 ? triggerTime.withNano(0).plusSeconds(1) : triggerTime;
+        long delayMillis = Math.max(0, Duration.between(now, deadline).toMillis());
+        try {
+            pendingTimeouts.computeIfAbsent(taskId, id -> timer.newTimeout(timeout -> onDue(id), delayMillis, TimeUnit.MILLISECONDS));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    int size() {
+        return pendingTimeouts.size();
+    }
+
+    void stop() {
+        timer.stop();
+        pendingTimeouts.clear();
+    }
+
+    private void onDue(Long taskId) {
+        pendingTimeouts.remove(taskId);
+        dueTaskIds.add(taskId);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                dispatchExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+            }
+        }
+    }
+
+    /**
+     * 同一时刻到期的任务合并成一批交给执行器
+     */
+    private void drain() {
+        try {
+            List<Long> taskIds = new ArrayList<>();
+            Long taskId;
+            while ((taskId = dueTaskIds.poll()) != null) {
+                taskIds.add(taskId);
+                if (taskIds.size() >= 200) {
+                    dueTaskConsumer.accept(taskIds);
+                    taskIds = new ArrayList<>();
+                }
+            }
+            if (!taskIds.isEmpty()) {
+                dueTaskConsumer.accept(taskIds);
+            }
+        } catch (Exception e) {
+            log.error("时间轮执行到期任务异常", e);
+        } finally {
+            draining.set(false);
+            if (!dueTaskIds.isEmpty() && draining.compareAndSet(false, true)) {
+                dispatchExecutor.execute(this::drain);
+            }
+        }
+    }
+
+    /**
+     * 已加载到的游标，触发时间小于等于该游标的任务已加载过
+     */
+    private static class Cursor {
+
+        private LocalDateTime triggerTime;
+
+        private long id;
+
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.robod.triggertask.handler;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @ClassName BatchTriggerTaskHandler
+ * @Description 批量触发任务处理器接口。同一类型的到期任务按批交给处理器，一批任务在同一个事务中处理，状态也按批更新。
+ * 带lockKey的任务仍然逐个调用{@link #handleTask}
+ * @Author Robod
+ * @Date 2025/01/24 10:00
+ */
+public interface BatchTriggerTaskHandler<T extends TriggerTaskBaseEntity> extends TriggerTaskHandler<T> {
+
+    /**
+     * 批量处理任务。结果中标记失败的任务记为失败，其余任务视为成功；抛出异常时整批回滚并记为失败。
+     * <p>
+     * 只标记部分任务失败时事务仍会提交，失败任务在本次处理中已经做的数据库修改也会一起提交，之后这些任务还会按重试策略重新执行，
+     * 因此处理器必须是幂等的。如果失败任务的修改需要回滚，可以在处理每个任务时用PROPAGATION_NESTED的TransactionTemplate
+     * 开启保存点，失败时只回滚到该任务的保存点再标记失败
+     *
+     * @param tasks 同一taskType的任务
+     * @return 每个任务的执行结果，返回null视为全部成功
+     */
+    BatchTriggerTaskResult handleTasks(List<T> tasks);
+
+    @Override
+    default void handleTask(T task) {
+        BatchTriggerTaskResult result = handleTasks(Collections.singletonList(task));
+        Throwable failure = result != null ? result.getFailure(task.getId()) : null;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure.getMessage(), failure);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.robod.triggertask.handler;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @ClassName BatchTriggerTaskResult
+ * @Description 批量处理结果，只记录失败的任务，未记录的任务视为成功
+ * @Author Robod
+ * @Date 2025/01/24 10:00
+ */
+public class BatchTriggerTaskResult {
+
+    private final Map<Long, Throwable> failures = new HashMap<>();
+
+    public static BatchTriggerTaskResult success() {
+        return new BatchTriggerTaskResult();
+    }
+
+    /**
+     * 标记任务执行失败。不会回滚该任务已经做的修改，见{@link BatchTriggerTaskHandler#handleTasks}
+     */
+    public BatchTriggerTaskResult fail(TriggerTaskBaseEntity task, Throwable cause) {
+        failures.put(task.getId(), cause);
+        return this;
+    }
+
+    public boolean isFailed(Long taskId) {
+        return failures.containsKey(taskId);
+    }
+
+    public Throwable getFailure(Long taskId) {
+        return failures.get(taskId);
+    }
+
+    public Map<Long, Throwable> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+}
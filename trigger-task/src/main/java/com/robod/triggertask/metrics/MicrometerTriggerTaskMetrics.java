@@ -0,0 +1,141 @@
+package com.robod.triggertask.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @ClassName MicrometerTriggerTaskMetrics
+ * @Description 基于Micrometer的监控指标，指标名统一以trigger.task开头，由Spring Boot Actuator暴露
+ * @Author Robod
+ * @Date 2025/01/20 10:00
+ */
+public class MicrometerTriggerTaskMetrics implements TriggerTaskMetrics {
+
+    private static final String PREFIX = "trigger.task.";
+
+    private static final String TAG_TASK_TYPE = "taskType";
+
+    private static final String TAG_ENTITY = "entity";
+
+    private final MeterRegistry registry;
+
+    private final Timer scanTimer;
+
+    private final Timer scanPageTimer;
+
+    private final DistributionSummary scanRows;
+
+    private final DistributionSummary insertBatchSize;
+
+    /**
+     * FunctionCounter只弱引用取值对象，这里持有强引用，避免被回收后指标变成NaN
+     */
+    private final List<Supplier<Number>> counterSuppliers = new CopyOnWriteArrayList<>();
+
+    public MicrometerTriggerTaskMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.scanTimer = Timer.builder(PREFIX + "scan.duration")
+                .description("一次完整扫描的耗时")
+                .register(registry);
+        this.scanPageTimer = Timer.builder(PREFIX + "scan.page.duration")
+                .description("扫描中每页的查询耗时")
+                .register(registry);
+        this.scanRows = DistributionSummary.builder(PREFIX + "scan.rows")
+                .description("扫描中每页拉取的行数")
+                .register(registry);
+        this.insertBatchSize = DistributionSummary.builder(PREFIX + "insert.batch.size")
+                .description("每批插入的任务数")
+                .register(registry);
+    }
+
+    @Override
+    public void recordScan(long nanos) {
+        scanTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordScanPage(long nanos, int rows) {
+        scanPageTimer.record(nanos, TimeUnit.NANOSECONDS);
+        scanRows.record(rows);
+    }
+
+    @Override
+    public void recordLag(String taskType, Duration lag) {
+        timer("lag", "任务从到期到开始执行的延迟", taskType).record(lag.isNegative() ? Duration.ZERO : lag);
+    }
+
+    @Override
+    public void recordHandler(String taskType, long nanos) {
+        timer("handler.duration", "处理器执行耗时", taskType).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordLockWait(String taskType, long nanos) {
+        timer("lock.wait", "获取lockKey分布式锁的等待耗时", taskType).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordTransaction(String taskType, long nanos) {
+        timer("transaction.duration", "任务事务耗时", taskType).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordResult(String taskType, boolean success, int count) {
+        Counter.builder(PREFIX + "executions")
+                .description("任务执行结果计数")
+                .tag(TAG_TASK_TYPE, taskType)
+                .tag("result", success ? "success" : "failure")
+                .register(registry)
+                .increment(count);
+    }
+
+    @Override
+    public void recordInsert(int batchSize) {
+        insertBatchSize.record(batchSize);
+    }
+
+    @Override
+    public void gauge(String name, String entity, Supplier<Number> supplier) {
+        Gauge.builder(PREFIX + name, supplier)
+                .tag(TAG_ENTITY, entity)
+                .register(registry);
+    }
+
+    @Override
+    public void counter(String name, String entity, Supplier<Number> supplier) {
+        counterSuppliers.add(supplier);
+        FunctionCounter.builder(PREFIX + name, supplier, s -> s.get().doubleValue())
+                .tag(TAG_ENTITY, entity)
+                .register(registry);
+    }
+
+    @Override
+    public void bindPool(String taskType, Supplier<Number> queued, Supplier<Number> active) {
+        Gauge.builder(PREFIX + "executor.queued", queued)
+                .description("线程池排队的任务数")
+                .tag(TAG_TASK_TYPE, taskType)
+                .register(registry);
+        Gauge.builder(PREFIX + "executor.active", active)
+                .description("线程池正在执行的任务数")
+                .tag(TAG_TASK_TYPE, taskType)
+                .register(registry);
+    }
+
+    private Timer timer(String name, String description, String taskType) {
+        return Timer.builder(PREFIX + name)
+                .description(description)
+                .tag(TAG_TASK_TYPE, taskType)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.robod.triggertask.metrics;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * @ClassName TriggerTaskMetrics
+ * @Description 触发任务监控指标。classpath中有Micrometer且容器中存在MeterRegistry时使用{@link MicrometerTriggerTaskMetrics}，否则不记录
+ * @Author Robod
+ * @Date 2025/01/20 10:00
+ */
+public interface TriggerTaskMetrics {
+
+    TriggerTaskMetrics NOOP = new TriggerTaskMetrics() {
+    };
+
+    /**
+     * 一次完整扫描的耗时
+     */
+    default void recordScan(long nanos) {
+    }
+
+    /**
+     * 扫描中一页的查询耗时和拉取的行数
+     */
+    default void recordScanPage(long nanos, int rows) {
+    }
+
+    /**
+     * 任务从到期到开始执行的延迟
+     */
+    default void recordLag(String taskType, Duration lag) {
+    }
+
+    /**
+     * 处理器执行耗时
+     */
+    default void recordHandler(String taskType, long nanos) {
+    }
+
+    /**
+     * 获取lockKey分布式锁的等待耗时
+     */
+    default void recordLockWait(String taskType, long nanos) {
+    }
+
+    /**
+     * 任务事务耗时，包含处理器执行和提交
+     */
+    default void recordTransaction(String taskType, long nanos) {
+    }
+
+    /**
+     * 任务执行结果计数
+     */
+    default void recordResult(String taskType, boolean success, int count) {
+    }
+
+    /**
+     * 每批插入的任务数
+     */
+    default void recordInsert(int batchSize) {
+    }
+
+    /**
+     * 执行器级别的指标，例如积压任务数、执行中任务数
+     *
+     * @param name     指标名
+     * @param entity   执行器对应的实体类名
+     * @param supplier 取值函数，每次采集时调用，不能有耗时操作
+     */
+    default void gauge(String name, String entity, Supplier<Number> supplier) {
+    }
+
+    /**
+     * 执行器级别的累计计数，例如锁竞争次数、延后执行次数
+     */
+    default void counter(String name, String entity, Supplier<Number> supplier) {
+    }
+
+    /**
+     * 任务类型线程池的排队数和活跃线程数
+     */
+    default void bindPool(String taskType, Supplier<Number> queued, Supplier<Number> active) {
+    }
+
+}
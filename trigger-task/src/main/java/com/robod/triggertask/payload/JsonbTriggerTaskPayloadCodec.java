@@ -0,0 +1,77 @@
+package com.robod.triggertask.payload;
+
+import com.alibaba.fastjson2.JSONB;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @ClassName JsonbTriggerTaskPayloadCodec
+ * @Description 使用fastjson2 JSONB编码，编码后超过压缩阈值时再用gzip压缩。第一个字节标记是否压缩，后面是编码后的内容
+ * @Author Robod
+ * @Date 2025/01/28 10:00
+ */
+public class JsonbTriggerTaskPayloadCodec implements TriggerTaskPayloadCodec {
+
+    private static final byte PLAIN = 0;
+
+    private static final byte GZIP = 1;
+
+    /**
+     * 压缩阈值，小于等于0时不压缩
+     */
+    private final int compressThreshold;
+
+    public JsonbTriggerTaskPayloadCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object payload) {
+        byte[] bytes = JSONB.toBytes(payload);
+        if (compressThreshold > 0 && bytes.length > compressThreshold) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 1);
+            out.write(GZIP);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+        byte[] data = new byte[bytes.length + 1];
+        data[0] = PLAIN;
+        System.arraycopy(bytes, 0, data, 1, bytes.length);
+        return data;
+    }
+
+    @Override
+    public <P> P decode(byte[] data, Type type) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (data[0] == PLAIN) {
+            return JSONB.parseObject(data, 1, data.length - 1, type);
+        }
+        if (data[0] != GZIP) {
+            throw new IllegalArgumentException("不支持的payload格式: " + data[0]);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data, 1, data.length - 1))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = gzip.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return JSONB.parseObject(out.toByteArray(), type);
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.robod.triggertask.payload;
+
+import java.lang.reflect.Type;
+
+/**
+ * @ClassName TriggerTaskPayloadCodec
+ * @Description 触发任务payload列的编解码器。默认使用{@link JsonbTriggerTaskPayloadCodec}，容器中定义了该类型的Bean时使用自定义的实现
+ * @Author Robod
+ * @Date 2025/01/28 10:00
+ */
+public interface TriggerTaskPayloadCodec {
+
+    /**
+     * 没有绑定编解码器时使用的默认实现，超过1KB压缩
+     */
+    TriggerTaskPayloadCodec DEFAULT = new JsonbTriggerTaskPayloadCodec(1024);
+
+    /**
+     * 把参数对象编码成写入payload列的字节
+     */
+    byte[] encode(Object payload);
+
+    /**
+     * 把payload列的字节解码成指定类型的对象
+     */
+    <P> P decode(byte[] data, Type type);
+
+}
@@ -0,0 +1,198 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @ClassName TriggerTaskEntityMetadata
+ * @Description 触发任务实体类元数据。每个实体类只解析一次字段与列的映射关系，并缓存参数化的插入语句
+ * @Author Robod
+ * @Date 2025/01/06 10:00
+ */
+public final class TriggerTaskEntityMetadata {
+
+    private static final Map<Class<?>, TriggerTaskEntityMetadata> CACHE = new ConcurrentHashMap<>();
+
+    private final List<String> columns;
+
+    private final List<Field> fields;
+
+    private final int[] sqlTypes;
+
+    private final String insertSql;
+
+    /**
+     * 带id列的插入语句，表名 -> SQL
+     */
+    private final Map<String, String> insertWithIdSqls = new ConcurrentHashMap<>();
+
+    private TriggerTaskEntityMetadata(Class<?> clazz) {
+        List<String> columns = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+
+        // 子类字段在前，父类字段在后，与原先拼接SQL的顺序保持一致
+        Class<?> clazzTemp = clazz;
+        while (clazzTemp != null && clazzTemp != Object.class) {
+            for (Field field : clazzTemp.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                // id由数据库自增生成
+                if ("id".equals(field.getName())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                columns.add(camelToSnake(field.getName()));
+                fields.add(field);
+            }
+            clazzTemp = clazzTemp.getSuperclass();
+        }
+
+        this.columns = Collections.unmodifiableList(columns);
+        this.fields = Collections.unmodifiableList(fields);
+        this.sqlTypes = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            this.sqlTypes[i] = sqlTypeOf(fields.get(i).getType());
+        }
+
+        this.insertSql = buildInsertSql("trigger_task", columns);
+    }
+
+    private static String buildInsertSql(String table, List<String> columns) {
+        StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        sb.append(String.join(", ", columns));
+        sb.append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    /**
+     * 获取实体类的元数据，同一个类只解析一次
+     */
+    public static TriggerTaskEntityMetadata of(Class<? extends TriggerTaskBaseEntity> clazz) {
+        return CACHE.computeIfAbsent(clazz, TriggerTaskEntityMetadata::new);
+    }
+
+    /**
+     * 不经过缓存重新解析实体类，即每个实体类第一次保存时的开销
+     */
+    static TriggerTaskEntityMetadata parse(Class<? extends TriggerTaskBaseEntity> clazz) {
+        return new TriggerTaskEntityMetadata(clazz);
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * 参数化的单行插入语句，配合JDBC批量执行使用
+     */
+    public String getInsertSql() {
+        return insertSql;
+    }
+
+    /**
+     * 插入指定表、id由调用方分配的插入语句，id为第一列
+     */
+    public String getInsertSql(String table) {
+        return insertWithIdSqls.computeIfAbsent(table, k -> {
+            List<String> columnsWithId = new ArrayList<>(columns.size() + 1);
+            columnsWithId.add("id");
+            columnsWithId.addAll(columns);
+            return buildInsertSql(k, columnsWithId);
+        });
+    }
+
+    /**
+     * 按列顺序把实体的字段值绑定到PreparedStatement上
+     */
+    public void setValues(PreparedStatement ps, Object entity) throws SQLException {
+        setValues(ps, entity, 0);
+    }
+
+    /**
+     * 绑定id和字段值，配合{@link #getInsertSql(String)}使用
+     */
+    public void setValuesWithId(PreparedStatement ps, TriggerTaskBaseEntity entity) throws SQLException {
+        ps.setLong(1, entity.getId());
+        setValues(ps, entity, 1);
+    }
+
+    private void setValues(PreparedStatement ps, Object entity, int offset) throws SQLException {
+        for (int i = 0; i < fields.size(); i++) {
+            Object val;
+            try {
+                val = fields.get(i).get(entity);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("trigger task field read fail: " + fields.get(i).getName(), e);
+            }
+            if (val == null) {
+                ps.setNull(offset + i + 1, sqlTypes[i]);
+            } else {
+                ps.setObject(offset + i + 1, val);
+            }
+        }
+    }
+
+    private static int sqlTypeOf(Class<?> type) {
+        if (type == String.class) {
+            return Types.VARCHAR;
+        } else if (type == Long.class || type == long.class) {
+            return Types.BIGINT;
+        } else if (type == Integer.class || type == int.class) {
+            return Types.INTEGER;
+        } else if (type == LocalDateTime.class) {
+            return Types.TIMESTAMP;
+        } else if (type == LocalDate.class) {
+            return Types.DATE;
+        } else if (type == BigDecimal.class) {
+            return Types.DECIMAL;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return Types.BOOLEAN;
+        } else if (type == byte[].class) {
+            return Types.VARBINARY;
+        }
+        return Types.VARCHAR;
+    }
+
+    /**
+     * 字符串驼峰转成下划线
+     */
+    private static String camelToSnake(String str) {
+        if (str == null || str.isEmpty()) {
+            return str;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (Character.isUpperCase(ch)) {
+                if (i != 0) {
+                    result.append('_');
+                }
+                result.append(Character.toLowerCase(ch));
+            } else {
+                result.append(ch);
+            }
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @ClassName TriggerTaskGroupCommitter
+ * @Description 合并提交。多个线程异步保存的任务先进入有界缓冲，由后台线程按数量或等待时间凑成一批，在一个事务中批量插入后提交。
+ * 事务提交后future才正常结束，此时任务已持久化。个别任务的数据有问题导致整批回滚时，把这一批对半拆开分别重新提交，
+ * 只有出问题的任务的future以异常结束；数据库不可用等与数据无关的失败不拆分，整批的future以异常结束
+ * @Author Robod
+ * @Date 2025/01/30 10:00
+ */
+@Slf4j
+class TriggerTaskGroupCommitter<T extends TriggerTaskBaseEntity> {
+
+    private final TriggerTaskProperties.GroupCommit properties;
+
+    private final BlockingQueue<Request<T>> buffer;
+
+    /**
+     * 在一个事务中插入一批任务，返回时事务已提交，失败时抛出异常
+     */
+    private final Consumer<List<T>> batchWriter;
+
+    private final Thread commitThread;
+
+    private volatile boolean running = true;
+
+    TriggerTaskGroupCommitter(TriggerTaskProperties.GroupCommit properties, Consumer<List<T>> batchWriter) {
+        this.properties = properties;
+        this.buffer = new LinkedBlockingQueue<>(properties.getBufferCapacity());
+        this.batchWriter = batchWriter;
+        this.commitThread = new Thread(this::run, "trigger-task-group-commit");
+        this.commitThread.setDaemon(true);
+        this.commitThread.start();
+    }
+
+    /**
+     * 放入缓冲，缓冲已满时最多等待enqueueTimeout
+     *
+     * @return 事务提交后以保存的任务(已回填id)结束，缓冲已满或已关闭时以RejectedExecutionException结束
+     */
+    CompletableFuture<T> submit(T entity) {
+        Request<T> request = new Request<>(entity);
+        if (!running) {
+            request.future.completeExceptionally(new RejectedExecutionException("TriggerTaskGroupCommitter已关闭"));
+            return request.future;
+        }
+        try {
+            if (!buffer.offer(request, properties.getEnqueueTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                request.future.completeExceptionally(new RejectedExecutionException("TriggerTask合并提交缓冲已满"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(e);
+        }
+        return request.future;
+    }
+
+    /**
+     * 停止后台线程并把缓冲中剩余的任务提交
+     */
+    void shutdown() {
+        running = false;
+        commitThread.interrupt();
+        try {
+            commitThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Request<T>> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += properties.getMaxBatchSize()) {
+            commit(remaining.subList(from, Math.min(from + properties.getMaxBatchSize(), remaining.size())));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            List<Request<T>> batch = new ArrayList<>(properties.getMaxBatchSize());
+            try {
+                batch.add(buffer.take());
+                // 第一个任务到达后再等一小段时间，把同时保存的任务凑成一批
+                long deadline = System.nanoTime() + properties.getMaxWait().toNanos();
+                while (batch.size() < properties.getMaxBatchSize()) {
+                    Request<T> request = buffer.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                    buffer.drainTo(batch, properties.getMaxBatchSize() - batch.size());
+                }
+            } catch (InterruptedException e) {
+                // shutdown时中断，已取出的任务在这里提交，缓冲中剩余的由shutdown提交
+            }
+            commit(batch);
+        }
+    }
+
+    private void commit(List<Request<T>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<T> taskList = new ArrayList<>(batch.size());
+        batch.forEach(request -> taskList.add(request.entity));
+        try {
+            batchWriter.accept(taskList);
+        } catch (Exception e) {
+            if (batch.size() > 1 && isDataError(e)) {
+                // 整批已回滚，拆开后重新提交，让其他任务不受出问题的任务影响
+                log.warn("TriggerTask合并提交失败, 拆分后重新提交, size: {}", taskList.size(), e);
+                taskList.forEach(task -> task.setId(null));
+                int middle = batch.size() / 2;
+                commit(batch.subList(0, middle));
+                commit(batch.subList(middle, batch.size()));
+                return;
+            }
+            log.error("TriggerTask合并提交失败, size: {}", taskList.size(), e);
+            batch.forEach(request -> request.future.completeExceptionally(e));
+            return;
+        }
+        batch.forEach(request -> request.future.complete(request.entity));
+    }
+
+    /**
+     * 是否是某些任务的数据引起的失败(违反约束、字段超长等)，这类失败拆分后重试能让其他任务提交成功。
+     * 连接失败等资源问题重试也不会成功，拆分只会放大对数据库的压力
+     */
+    private static boolean isDataError(Exception e) {
+        return e instanceof NonTransientDataAccessException && !(e instanceof NonTransientDataAccessResourceException);
+    }
+
+    private static class Request<T> {
+
+        private final T entity;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Request(T entity) {
+            this.entity = entity;
+        }
+
+    }
+
+}
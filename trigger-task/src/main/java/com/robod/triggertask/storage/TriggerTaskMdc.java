@@ -0,0 +1,59 @@
+package com.robod.triggertask.storage;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.TypeReference;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * @ClassName TriggerTaskMdc
+ * @Description 任务的MDC。保存任务时取调用线程的MDC序列化后随任务保存，执行任务时还原到执行线程，执行完清理
+ * @Author Robod
+ * @Date 2025/02/10 10:00
+ */
+public final class TriggerTaskMdc {
+
+    private static final Type MDC_TYPE = new TypeReference<Map<String, String>>() {
+    }.getType();
+
+    /**
+     * 不随任务保存的键
+     */
+    private static final String[] EXCLUDED_KEYS = {"requestParam", "token", "MachineName", "ApplicationName"};
+
+    private TriggerTaskMdc() {
+    }
+
+    /**
+     * 序列化当前线程的MDC，没有MDC时返回空字符串
+     */
+    public static String capture() {
+        Map<String, String> copyOfContextMap = MDC.getCopyOfContextMap();
+        if (copyOfContextMap == null) {
+            return "";
+        }
+        for (String key : EXCLUDED_KEYS) {
+            copyOfContextMap.remove(key);
+        }
+        return JSON.toJSONString(copyOfContextMap);
+    }
+
+    /**
+     * 把任务保存的MDC设置到当前线程
+     */
+    public static void restore(String mdc) {
+        if (mdc != null && !mdc.isEmpty()) {
+            MDC.setContextMap(JSON.parseObject(mdc, MDC_TYPE));
+        }
+    }
+
+    /**
+     * 任务执行完后清理当前线程的MDC
+     */
+    public static void clear() {
+        MDC.clear();
+    }
+
+}
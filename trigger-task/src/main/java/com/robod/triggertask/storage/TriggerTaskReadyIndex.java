@@ -0,0 +1,211 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.ScoredEntry;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.Resource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @ClassName TriggerTaskReadyIndex
+ * @Description 待执行任务的Redis就绪索引。用有序集合保存未结束任务的id，score为触发时间的毫秒数，执行器从中弹出到期的id后按id加载任务
+ * @Author Robod
+ * @Date 2025/01/17 10:00
+ */
+@Slf4j
+public class TriggerTaskReadyIndex implements EnvironmentAware {
+
+    /**
+     * 原子地弹出score小于等于ARGV[1]的前ARGV[2]个成员，多个实例同时弹出拿到的id互不相交
+     */
+    private static final String POLL_DUE_SCRIPT =
+            "local ids = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'limit', 0, ARGV[2]); "
+                    + "if #ids > 0 then redis.call('zrem', KEYS[1], unpack(ids)); end; "
+                    + "return ids;";
+
+    private static final int RECONCILE_BATCH_SIZE = 1000;
+
+    private Environment environment;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TriggerTaskProperties triggerTaskProperties;
+
+    @Resource
+    private TriggerTaskTableRouter triggerTaskTableRouter;
+
+    public boolean isEnabled() {
+        return triggerTaskProperties.getReadyIndex().isEnabled();
+    }
+
+    /**
+     * 写入索引，已存在的id会更新触发时间
+     */
+    public void add(Collection<? extends TriggerTaskBaseEntity> taskList) {
+        Map<String, Double> members = new HashMap<>(taskList.size() * 2);
+        for (TriggerTaskBaseEntity task : taskList) {
+            if (task.getId() != null) {
+                members.put(String.valueOf(task.getId()), score(task.getTriggerTime() != null ? task.getTriggerTime() : LocalDateTime.now()));
+            }
+        }
+        if (!members.isEmpty()) {
+            getSortedSet().addAll(members);
+        }
+    }
+
+    /**
+     * 写入已直接交给本实例执行器的任务，到期时间推后宽限时间，执行失败或没能提交的任务宽限期后由其他实例弹出执行。
+     * 宽限期后仍在执行的任务也会被弹出，由认领时的租约条件跳过
+     */
+    public void addDispatched(Collection<? extends TriggerTaskBaseEntity> taskList) {
+        LocalDateTime graceTime = graceTime();
+        Map<String, Double> members = new HashMap<>(taskList.size() * 2);
+        for (TriggerTaskBaseEntity task : taskList) {
+            if (task.getId() != null) {
+                LocalDateTime triggerTime = task.getTriggerTime() != null ? task.getTriggerTime() : LocalDateTime.now();
+                members.put(String.valueOf(task.getId()), score(triggerTime.isAfter(graceTime) ? triggerTime : graceTime));
+            }
+        }
+        if (!members.isEmpty()) {
+            getSortedSet().addAll(members);
+        }
+    }
+
+    public void add(Long taskId, LocalDateTime triggerTime) {
+        getSortedSet().add(score(triggerTime), String.valueOf(taskId));
+    }
+
+    /**
+     * 弹出已到触发时间的任务id
+     */
+    public List<Long> pollDue(int limit) {
+        List<Object> ids = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, POLL_DUE_SCRIPT, RScript.ReturnType.MULTI,
+                Collections.singletonList(getKey()), String.valueOf(score(LocalDateTime.now()).longValue()), String.valueOf(limit));
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(id -> Long.valueOf(id.toString())).collect(Collectors.toList());
+    }
+
+    /**
+     * 对账：把数据库中未结束但索引里没有的任务补进索引，再把索引里已经不是未结束状态的任务移除
+     */
+    public void reconcile() {
+        RScoredSortedSet<String> sortedSet = getSortedSet();
+
+        int added = 0;
+        for (String table : triggerTaskTableRouter.getTables()) {
+            added += addMissing(sortedSet, table);
+        }
+
+        int removed = 0;
+        for (int start = 0; ; start += RECONCILE_BATCH_SIZE) {
+            Collection<ScoredEntry<String>> entries = sortedSet.entryRange(start, start + RECONCILE_BATCH_SIZE - 1);
+            if (entries.isEmpty()) {
+                break;
+            }
+            List<Long> ids = entries.stream().map(entry -> Long.valueOf(entry.getValue())).collect(Collectors.toList());
+            String idsString = ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+            Set<Long> pendingIds = new HashSet<>();
+            for (String table : triggerTaskTableRouter.getTables()) {
+                String sql = String.format(" select id from %s where id in (%s) and task_status = ? ", table, idsString);
+                pendingIds.addAll(jdbcTemplate.queryForList(sql, Long.class, TriggerTaskStatusEnum.NOT_END.getStatus()));
+            }
+            List<String> staleIds = new ArrayList<>();
+            for (Long id : ids) {
+                if (!pendingIds.contains(id)) {
+                    staleIds.add(String.valueOf(id));
+                }
+            }
+            if (!staleIds.isEmpty()) {
+                sortedSet.removeAll(staleIds);
+                removed += staleIds.size();
+                // 删除后后面的成员前移
+                start -= staleIds.size();
+            }
+        }
+
+        log.info("就绪索引对账完成, 补充: {}, 移除: {}, 当前大小: {}", added, removed, sortedSet.size());
+    }
+
+    /**
+     * 把表中未结束但索引里没有的任务补进索引，按(trigger_time, id)游标分页，走(task_status, trigger_time, id, next_retry_time)索引。
+     * 索引里没有的任务可能已被某个实例弹出正在执行，补回时到期时间推后宽限时间
+     *
+     * @return 补充的任务数
+     */
+    private int addMissing(RScoredSortedSet<String> sortedSet, String table) {
+        int added = 0;
+        Timestamp triggerTimeLimit = new Timestamp(0L);
+        long idLimit = 0L;
+        LocalDateTime graceTime = graceTime();
+        while (true) {
+            List<Object[]> rows = jdbcTemplate.query(" select id, trigger_time, coalesce(next_retry_time, trigger_time) from " + table + " where task_status = ? "
+                            + " and (trigger_time > ? or (trigger_time = ? and id > ?)) order by trigger_time asc, id asc limit ? ",
+                    (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getTimestamp(2), rs.getTimestamp(3)},
+                    TriggerTaskStatusEnum.NOT_END.getStatus(), triggerTimeLimit, triggerTimeLimit, idLimit, RECONCILE_BATCH_SIZE);
+            if (rows.isEmpty()) {
+                break;
+            }
+            Map<String, Double> members = new HashMap<>(rows.size() * 2);
+            for (Object[] row : rows) {
+                LocalDateTime dueTime = ((Timestamp) row[2]).toLocalDateTime();
+                members.put(String.valueOf(row[0]), score(dueTime.isAfter(graceTime) ? dueTime : graceTime));
+            }
+            added += sortedSet.addAllIfAbsent(members);
+            Object[] last = rows.get(rows.size() - 1);
+            idLimit = (Long) last[0];
+            triggerTimeLimit = (Timestamp) last[1];
+        }
+        return added;
+    }
+
+    private LocalDateTime graceTime() {
+        return LocalDateTime.now().plus(triggerTaskProperties.getReadyIndex().getInFlightGrace());
+    }
+
+    private RScoredSortedSet<String> getSortedSet() {
+        return redissonClient.getScoredSortedSet(getKey(), StringCodec.INSTANCE);
+    }
+
+    private String getKey() {
+        return environment.getProperty("spring.application.name") + ":trigger-task:ready";
+    }
+
+    private static Double score(LocalDateTime triggerTime) {
+        return (double) triggerTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    @SuppressWarnings("all")
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * @ClassName TriggerTaskSchemaChecker
+ * @Description 启动时检查任务表是否有扫描依赖的索引，缺少时输出告警和建索引语句，不影响启动。
+ * 配置了按dedupKey合并的任务类型时，对应的表必须有(task_type, dedup_key)唯一索引，缺少或不是唯一索引时启动失败
+ * @Author Robod
+ * @Date 2025/01/24 10:00
+ */
+@Slf4j
+public class TriggerTaskSchemaChecker {
+
+    /**
+     * 索引名 -> 需要作为索引前缀的列，与db/trigger-task下的版本化脚本保持一致
+     */
+    private static final Map<String, List<String>> REQUIRED_INDEXES = new LinkedHashMap<>();
+
+    static {
+        REQUIRED_INDEXES.put("idx_status_trigger_time", Arrays.asList("task_status", "trigger_time", "id", "next_retry_time"));
+    }
+
+    /**
+     * 开启优先级后按优先级扫描用到的索引
+     */
+    private static final Map<String, List<String>> PRIORITY_INDEXES = Collections.singletonMap("idx_status_priority_trigger_time",
+            Arrays.asList("task_status", "priority", "trigger_time", "id"));
+
+    /**
+     * 按dedupKey合并任务依赖的唯一索引
+     */
+    private static final List<String> DEDUP_INDEX_COLUMNS = Arrays.asList("task_type", "dedup_key");
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TriggerTaskProperties triggerTaskProperties;
+
+    @Resource
+    private TriggerTaskTableRouter triggerTaskTableRouter;
+
+    @PostConstruct
+    public void check() {
+        if (!triggerTaskProperties.getSchema().isCheckIndexes()) {
+            return;
+        }
+        Set<String> dedupTables = new LinkedHashSet<>();
+        triggerTaskProperties.getDedup().getTaskTypes().keySet().forEach(taskType -> dedupTables.addAll(triggerTaskTableRouter.tablesOf(taskType)));
+        List<String> missingDedupIndexTables = new ArrayList<>();
+        for (String table : triggerTaskTableRouter.getTables()) {
+            try {
+                if (!check(table, dedupTables.contains(table))) {
+                    missingDedupIndexTables.add(table);
+                }
+            } catch (Exception e) {
+                log.warn("检查{}表索引失败", table, e);
+            }
+        }
+        if (!missingDedupIndexTables.isEmpty()) {
+            throw new IllegalStateException("trigger-task.dedup.task-types已配置, 但" + missingDedupIndexTables + "表缺少("
+                    + String.join(", ", DEDUP_INDEX_COLUMNS) + ")唯一索引");
+        }
+    }
+
+    /**
+     * @param requireDedupIndex 表中是否会保存按dedupKey合并的任务
+     * @return 需要但缺少(task_type, dedup_key)唯一索引时返回false
+     */
+    private boolean check(String table, boolean requireDedupIndex) {
+        Collection<List<String>> indexes = loadIndexes(table, false);
+        if (indexes.isEmpty()) {
+            log.warn("没有读取到{}表的索引信息, 请确认已执行db/trigger-task下的建表脚本", table);
+            return true;
+        }
+        Map<String, List<String>> requiredIndexes = new LinkedHashMap<>(REQUIRED_INDEXES);
+        if (triggerTaskProperties.getPriority().isEnabled()) {
+            requiredIndexes.putAll(PRIORITY_INDEXES);
+        }
+        for (Map.Entry<String, List<String>> entry : requiredIndexes.entrySet()) {
+            // InnoDB的二级索引本身带有主键，去掉主键id后比较，只要求其余的列是索引前缀
+            List<String> prefix = withoutId(entry.getValue());
+            boolean found = indexes.stream().map(TriggerTaskSchemaChecker::withoutId)
+                    .anyMatch(columns -> columns.size() >= prefix.size() && columns.subList(0, prefix.size()).equals(prefix));
+            if (!found) {
+                log.warn("{}表缺少索引({}), 扫描会退化为全表扫描, 请执行: ALTER TABLE {} ADD INDEX {} ({})", table, String.join(", ", prefix),
+                        table, entry.getKey(), String.join(", ", entry.getValue()));
+            }
+        }
+        // 普通索引不能阻止并发保存相同dedupKey的任务，只认唯一索引
+        if (requireDedupIndex && !loadIndexes(table, true).contains(DEDUP_INDEX_COLUMNS)) {
+            log.error("{}表缺少唯一索引({}), 无法按dedupKey合并任务, 请执行: ALTER TABLE {} ADD UNIQUE INDEX uk_task_type_dedup_key ({})", table,
+                    String.join(", ", DEDUP_INDEX_COLUMNS), table, String.join(", ", DEDUP_INDEX_COLUMNS));
+            return false;
+        }
+        return true;
+    }
+
+    private static List<String> withoutId(List<String> columns) {
+        List<String> result = new ArrayList<>(columns);
+        result.remove("id");
+        return result;
+    }
+
+    /**
+     * 读取表上索引的列，列名统一转成小写
+     *
+     * @param uniqueOnly 是否只读取唯一索引
+     */
+    private Collection<List<String>> loadIndexes(String table, boolean uniqueOnly) {
+        Map<String, TreeMap<Short, String>> indexes = jdbcTemplate.execute((ConnectionCallback<Map<String, TreeMap<Short, String>>>) con -> {
+            DatabaseMetaData metaData = con.getMetaData();
+            Map<String, TreeMap<Short, String>> result = new LinkedHashMap<>();
+            // 有的数据库元数据中的表名是大写的
+            for (String tableName : new String[]{table, table.toUpperCase()}) {
+                try (ResultSet rs = metaData.getIndexInfo(con.getCatalog(), null, tableName, uniqueOnly, true)) {
+                    while (rs.next()) {
+                        String indexName = rs.getString("INDEX_NAME");
+                        String columnName = rs.getString("COLUMN_NAME");
+                        if (uniqueOnly && rs.getBoolean("NON_UNIQUE")) {
+                            continue;
+                        }
+                        if (indexName != null && columnName != null) {
+                            result.computeIfAbsent(indexName, k -> new TreeMap<>()).put(rs.getShort("ORDINAL_POSITION"), columnName.toLowerCase());
+                        }
+                    }
+                }
+                if (!result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        });
+
+        List<List<String>> columnsList = new ArrayList<>();
+        if (indexes != null) {
+            indexes.values().forEach(columns -> columnsList.add(new ArrayList<>(columns.values())));
+        }
+        return columnsList;
+    }
+
+}
@@ -1,18 +1,41 @@
 package com.robod.triggertask.storage;
 
-import com.alibaba.fastjson2.JSON;
+import com.robod.triggertask.config.TriggerTaskProperties;
 import com.robod.triggertask.entity.TriggerTaskBaseEntity;
 import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import com.robod.triggertask.executor.TriggerTaskExecutor;
+import com.robod.triggertask.metrics.TriggerTaskMetrics;
+import com.robod.triggertask.payload.TriggerTaskPayloadCodec;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.MDC;
+import org.redisson.api.RIdGenerator;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.time.LocalDateTime;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @ClassName TriggerTaskStorage
@@ -21,16 +44,58 @@ import java.util.*;
  * @Date 2024/12/28 10:00
  */
 @Slf4j
-public class TriggerTaskStorage<T extends TriggerTaskBaseEntity> {
+public class TriggerTaskStorage<T extends TriggerTaskBaseEntity> implements EnvironmentAware {
+
+    /**
+     * 每批插入的行数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 保留最新的任务时，并发保存相同dedupKey的任务导致插入冲突后的最多重试次数
+     */
+    private static final int MAX_DEDUP_RETRIES = 3;
 
     @Resource
     private JdbcTemplate jdbcTemplate;
 
+    @Resource
+    private TriggerTaskProperties triggerTaskProperties;
+
+    @Resource
+    private TriggerTaskReadyIndex triggerTaskReadyIndex;
+
+    @Resource
+    private TriggerTaskPayloadCodec triggerTaskPayloadCodec;
+
+    @Resource
+    private TriggerTaskTableRouter triggerTaskTableRouter;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    private Environment environment;
+
+    private volatile RIdGenerator idGenerator;
+
+    /**
+     * 第一次调用saveAsync时创建
+     */
+    private volatile TriggerTaskGroupCommitter<T> groupCommitter;
+
+    @Autowired
+    private ObjectProvider<TriggerTaskExecutor<?>> triggerTaskExecutorProvider;
+
+    @Autowired(required = false)
+    private TriggerTaskMetrics triggerTaskMetrics = TriggerTaskMetrics.NOOP;
+
     public void save(T entity) {
         init(entity);
-        String sql = generateInsertSQL(Collections.singletonList(entity));
-        log.info(sql);
-        jdbcTemplate.update(sql);
+        insert(Collections.singletonList(entity));
+        afterInsert(Collections.singletonList(entity));
     }
 
     public void saveBatch(List<T> entityList) {
@@ -39,32 +104,56 @@ public class TriggerTaskStorage<T extends TriggerTaskBaseEntity> {
         }
 
         entityList.forEach(this::init);
-        split(entityList).forEach(list -> {
-            String sql = generateInsertSQL(entityList);
-            log.info(sql);
-            jdbcTemplate.update(sql);
-        });
+        insert(entityList);
+        afterInsert(entityList);
     }
 
-    private List<List<T>> split(Collection<T> collection) {
-        // 该方法摘抄自hutool
-        final List<List<T>> result = new ArrayList<>();
-        if (CollectionUtils.isEmpty(collection)) {
-            return result;
+    /**
+     * 异步保存，和其他线程同时保存的任务合并成一次多行插入、一次提交，适合不在业务事务中、保存频率很高的调用方。
+     * 任务在独立的事务中提交，不能在业务事务中调用，事务中请使用{@link #save}。
+     * future在任务提交到数据库后结束，回调在合并提交线程中执行，耗时的后续操作请使用xxxAsync方法
+     *
+     * @return 提交成功时以保存的任务(已回填id)结束；插入失败、缓冲已满或已关闭时以异常结束，任务没有保存
+     */
+    public CompletableFuture<T> saveAsync(T entity) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("saveAsync不能在事务中调用，请使用save");
         }
+        // MDC取自调用线程，需要在进入缓冲前初始化
+        init(entity);
+        return getGroupCommitter().submit(entity);
+    }
 
-        final int defaultSize = 500;
-        final int initSize = Math.min(collection.size(), defaultSize);
-        List<T> subList = new ArrayList<>(initSize);
-        for (T t : collection) {
-            if (subList.size() >= defaultSize) {
-                result.add(subList);
-                subList = new ArrayList<>(initSize);
+    private TriggerTaskGroupCommitter<T> getGroupCommitter() {
+        TriggerTaskGroupCommitter<T> committer = groupCommitter;
+        if (committer != null) {
+            return committer;
+        }
+        synchronized (this) {
+            if (groupCommitter == null) {
+                groupCommitter = new TriggerTaskGroupCommitter<>(triggerTaskProperties.getGroupCommit(), this::commitBatch);
             }
-            subList.add(t);
+            return groupCommitter;
+        }
+    }
+
+    /**
+     * 在一个事务中插入合并的一批任务，不同实体类型分别插入。提交后再写入就绪索引、交给执行器
+     */
+    private void commitBatch(List<T> taskList) {
+        Map<Class<?>, List<T>> classTaskMap = new LinkedHashMap<>();
+        for (T task : taskList) {
+            classTaskMap.computeIfAbsent(task.getClass(), k -> new ArrayList<>()).add(task);
+        }
+        transactionTemplate.executeWithoutResult(status -> classTaskMap.values().forEach(this::insert));
+        classTaskMap.values().forEach(this::afterInsert);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (groupCommitter != null) {
+            groupCommitter.shutdown();
         }
-        result.add(subList);
-        return result;
     }
 
     private void init(TriggerTaskBaseEntity entity) {
@@ -73,96 +162,279 @@ public class TriggerTaskStorage<T extends TriggerTaskBaseEntity> {
         entity.setRemark(entity.getRemark() != null ? entity.getRemark() : "");
         entity.setFailMsg("");
         entity.setFailCount(0);
+        entity.setNextRetryTime(null);
         entity.setLockKey(entity.getLockKey() != null ? entity.getLockKey() : "");
+        if (entity.getDedupKey() != null && (entity.getDedupKey().isEmpty() || !triggerTaskProperties.getDedup().getTaskTypes().containsKey(entity.getTaskType()))) {
+            entity.setDedupKey(null);
+        }
+        entity.encodePayload(triggerTaskPayloadCodec);
+        int maxPriority = triggerTaskProperties.getPriority().getMaxPriority();
+        entity.setPriority(entity.getPriority() != null ? Math.max(0, Math.min(entity.getPriority(), maxPriority)) : 0);
         entity.setCreatedAt(entity.getCreatedAt() != null ? entity.getCreatedAt() : LocalDateTime.now());
         entity.setUpdatedAt(entity.getUpdatedAt() != null ? entity.getUpdatedAt() : LocalDateTime.now());
-        Map<String, String> copyOfContextMap = MDC.getCopyOfContextMap();
-        if (copyOfContextMap != null) {
-            copyOfContextMap.remove("requestParam");
-            copyOfContextMap.remove("token");
-            copyOfContextMap.remove("MachineName");
-            copyOfContextMap.remove("ApplicationName");
-            entity.setMdc(JSON.toJSONString(copyOfContextMap));
-        } else {
-            entity.setMdc("");
+        entity.setMdc(TriggerTaskMdc.capture());
+    }
+
+    /**
+     * 没有dedupKey的任务批量插入，有dedupKey的任务先在批次内合并，再逐个按合并方式插入。被丢弃的任务id为空
+     */
+    private void insert(List<T> taskList) {
+        List<T> plainList = new ArrayList<>(taskList.size());
+        Map<List<String>, T> dedupTaskMap = new LinkedHashMap<>();
+        for (T task : taskList) {
+            if (task.getDedupKey() == null) {
+                plainList.add(task);
+                continue;
+            }
+            List<String> key = Arrays.asList(task.getTaskType(), task.getDedupKey());
+            if (!dedupTaskMap.containsKey(key) || dedupModeOf(task) == TriggerTaskProperties.DedupMode.LATEST_WINS) {
+                dedupTaskMap.put(key, task);
+            }
+        }
+        if (!plainList.isEmpty()) {
+            insertRows(plainList);
         }
+        dedupTaskMap.values().forEach(this::insertDedup);
+    }
+
+    private TriggerTaskProperties.DedupMode dedupModeOf(T task) {
+        return triggerTaskProperties.getDedup().getTaskTypes().get(task.getTaskType());
     }
 
     /**
-     * 实体类转成插入语句
+     * 依靠(task_type, dedup_key)唯一索引判断是否已有未结束的任务。保留最新的任务时先结束原任务再插入，
+     * 原任务如果正在执行，会执行完，但不会再重试，新任务之后仍会执行；保留最早的任务时插入冲突就丢弃新任务
      */
-    private String generateInsertSQL(List<T> taskList) {
-        StringBuilder sb = new StringBuilder();
-        try {
-            Class<?> clazz = taskList.get(0).getClass();
+    private void insertDedup(T task) {
+        TriggerTaskProperties.DedupMode mode = dedupModeOf(task);
+        for (int retries = 0; ; retries++) {
+            if (mode == TriggerTaskProperties.DedupMode.LATEST_WINS) {
+                supersede(task);
+            }
+            try {
+                insertRows(Collections.singletonList(task));
+                return;
+            } catch (DuplicateKeyException e) {
+                task.setId(null);
+                if (mode == TriggerTaskProperties.DedupMode.FIRST_WINS) {
+                    log.info("已有未结束的任务, 丢弃新任务: {}, {}", task.getTaskType(), task.getDedupKey());
+                    return;
+                }
+                if (retries >= MAX_DEDUP_RETRIES) {
+                    throw e;
+                }
+                // 其他线程同时保存了相同dedupKey的任务，结束它之后重新插入
+            }
+        }
+    }
+
+    /**
+     * 结束相同dedupKey的未结束任务并清空其dedupKey
+     */
+    private void supersede(T task) {
+        String table = triggerTaskTableRouter.isEnabled() ? triggerTaskTableRouter.route(task) : TriggerTaskTableRouter.DEFAULT_TABLE;
+        int superseded = jdbcTemplate.update("update " + table + " set task_status = ?, dedup_key = null, updated_at = ? where task_type = ? and dedup_key = ? and task_status = ?",
+                TriggerTaskStatusEnum.END.getStatus(), LocalDateTime.now(), task.getTaskType(), task.getDedupKey(), TriggerTaskStatusEnum.NOT_END.getStatus());
+        if (superseded > 0) {
+            log.info("被新任务替换, 结束原任务: {}, {}", task.getTaskType(), task.getDedupKey());
+        }
+    }
 
-            sb.append("INSERT INTO ").append("trigger_task").append(" (");
+    /**
+     * 以参数化语句批量插入，同一批次的实体类型必须一致。配合rewriteBatchedStatements=true可合并成多值插入。
+     * 开启路由时先分配id再按表分别插入，否则插入trigger_task后回填自增id
+     */
+    private void insertRows(List<T> taskList) {
+        TriggerTaskEntityMetadata metadata = TriggerTaskEntityMetadata.of(taskList.get(0).getClass());
+        if (!triggerTaskTableRouter.isEnabled()) {
+            taskList.forEach(task -> task.setTableName(TriggerTaskTableRouter.DEFAULT_TABLE));
+            insertAutoIncrement(metadata, taskList);
+            return;
+        }
 
-            Class<?> clazzTemp = clazz;
-            while (clazzTemp != null) {
-                Field[] fields = clazzTemp.getDeclaredFields();
-                for (Field field : fields) {
-                    if (!Modifier.isStatic(field.getModifiers())) {
-                        sb.append(camelToSnake(field.getName())).append(", ");
+        RIdGenerator idGenerator = getIdGenerator();
+        for (T task : taskList) {
+            task.setId(idGenerator.nextId());
+            task.setTableName(triggerTaskTableRouter.route(task));
+        }
+        for (Map.Entry<String, List<T>> entry : triggerTaskTableRouter.groupByTable(taskList).entrySet()) {
+            String sql = metadata.getInsertSql(entry.getKey());
+            List<T> tableTaskList = entry.getValue();
+            log.debug("{}, size: {}", sql, tableTaskList.size());
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                try (PreparedStatement ps = con.prepareStatement(sql)) {
+                    for (int from = 0; from < tableTaskList.size(); from += BATCH_SIZE) {
+                        List<T> batch = tableTaskList.subList(from, Math.min(from + BATCH_SIZE, tableTaskList.size()));
+                        for (T task : batch) {
+                            metadata.setValuesWithId(ps, task);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                        triggerTaskMetrics.recordInsert(batch.size());
                     }
                 }
-                clazzTemp = clazzTemp.getSuperclass();
-            }
+                return null;
+            });
+        }
+    }
 
-            sb.deleteCharAt(sb.length() - 2);
-            sb.append(") VALUES ");
-
-            for (T task : taskList) {
-                sb.append("(");
-                clazzTemp = clazz;
-                while (clazzTemp != null) {
-                    Field[] fields = clazzTemp.getDeclaredFields();
-                    for (Field field : fields) {
-                        field.setAccessible(true);
-                        if (!Modifier.isStatic(field.getModifiers())) {
-                            Object val = field.get(task);
-                            if (val == null || Objects.equals(field.getName(), "id")) {
-                                sb.append(" null, ");
-                            } else {
-                                sb.append("'").append(field.get(task)).append("', ");
-                            }
+    private void insertAutoIncrement(TriggerTaskEntityMetadata metadata, List<T> taskList) {
+        log.debug("{}, size: {}", metadata.getInsertSql(), taskList.size());
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(metadata.getInsertSql(), Statement.RETURN_GENERATED_KEYS)) {
+                for (int from = 0; from < taskList.size(); from += BATCH_SIZE) {
+                    List<T> batch = taskList.subList(from, Math.min(from + BATCH_SIZE, taskList.size()));
+                    for (T task : batch) {
+                        metadata.setValues(ps, task);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    triggerTaskMetrics.recordInsert(batch.size());
+                    try (ResultSet rs = ps.getGeneratedKeys()) {
+                        for (int i = 0; i < batch.size() && rs.next(); i++) {
+                            batch.get(i).setId(rs.getLong(1));
                         }
                     }
-                    clazzTemp = clazzTemp.getSuperclass();
                 }
-                sb.deleteCharAt(sb.length() - 2);
-                sb.append("),");
             }
+            return null;
+        });
+    }
 
-            sb.deleteCharAt(sb.length() - 1);
-            sb.append(";");
-        } catch (Exception e) {
-            throw new RuntimeException("trigger task sql generate fail!");
+    /**
+     * 开启路由时在启动阶段初始化id生成器，不等到第一次保存
+     */
+    @PostConstruct
+    public void initIdGenerator() {
+        if (triggerTaskTableRouter.isEnabled()) {
+            getIdGenerator();
+        }
+    }
+
+    /**
+     * 开启路由后使用的id生成器，从所有表当前最大的id之后开始分配，避免与自增的id重复。
+     * Redis中的生成器只在第一次开启路由时初始化，关闭路由期间trigger_task自增的id会超过生成器的位置，所以每次启动都要检查
+     */
+    private RIdGenerator getIdGenerator() {
+        RIdGenerator generator = idGenerator;
+        if (generator != null) {
+            return generator;
+        }
+        synchronized (this) {
+            if (idGenerator == null) {
+                String name = environment.getProperty("spring.application.name") + ":trigger-task:id";
+                int allocationSize = triggerTaskProperties.getRouting().getIdAllocationSize();
+                long maxId = maxId();
+                RIdGenerator generatorTemp = redissonClient.getIdGenerator(name);
+                generatorTemp.tryInit(maxId + 1, allocationSize);
+                if (generatorTemp.nextId() <= maxId) {
+                    generatorTemp = reseedIdGenerator(name, allocationSize);
+                }
+                idGenerator = generatorTemp;
+            }
+            return idGenerator;
+        }
+    }
+
+    /**
+     * 生成器落后于任务表时，在全局锁内从所有表当前最大的id之后重新初始化。加锁后重新检查，其他实例可能已经重新初始化过
+     */
+    private RIdGenerator reseedIdGenerator(String name, int allocationSize) {
+        RLock lock = redissonClient.getLock(name + ":reseed");
+        lock.lock();
+        try {
+            long maxId = maxId();
+            RIdGenerator generator = redissonClient.getIdGenerator(name);
+            if (generator.nextId() <= maxId) {
+                log.warn("TriggerTask id生成器落后于任务表当前最大的id: {}, 从{}开始重新初始化", maxId, maxId + 1);
+                generator.delete();
+                generator = redissonClient.getIdGenerator(name);
+                generator.tryInit(maxId + 1, allocationSize);
+            }
+            return generator;
+        } finally {
+            lock.unlock();
         }
-        return sb.toString();
     }
 
     /**
-     * 字符串驼峰转成下划线
+     * 所有任务表当前最大的id
      */
-    private String camelToSnake(String str) {
-        if (str == null || str.isEmpty()) {
-            return str;
+    private long maxId() {
+        long maxId = 0L;
+        for (String table : triggerTaskTableRouter.getTables()) {
+            Long tableMaxId = jdbcTemplate.queryForObject("select max(id) from " + table, Long.class);
+            maxId = Math.max(maxId, tableMaxId == null ? 0L : tableMaxId);
         }
+        return maxId;
+    }
 
-        StringBuilder result = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char ch = str.charAt(i);
-            if (Character.isUpperCase(ch)) {
-                if (i != 0) {
-                    result.append('_');
+    /**
+     * 当前存在事务时，事务提交后把新任务写入就绪索引并直接交给本实例的执行器；没有事务时插入后立即处理。
+     * 提交失败或执行器繁忙的任务仍由定时扫描兜底
+     */
+    private void afterInsert(List<T> taskList) {
+        if (!triggerTaskProperties.isDispatchAfterCommit() && !triggerTaskReadyIndex.isEnabled()) {
+            return;
+        }
+
+        List<T> insertedList = new ArrayList<>(taskList.size());
+        for (T task : taskList) {
+            if (task.getId() != null) {
+                insertedList.add(task);
+            }
+        }
+        if (insertedList.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    afterCommitted(insertedList);
                 }
-                result.append(Character.toLowerCase(ch));
-            } else {
-                result.append(ch);
+            });
+        } else {
+            afterCommitted(insertedList);
+        }
+    }
+
+    private void afterCommitted(List<T> taskList) {
+        if (triggerTaskReadyIndex.isEnabled()) {
+            try {
+                if (triggerTaskProperties.isDispatchAfterCommit()) {
+                    // 下面直接交给本实例执行，索引只作为兜底
+                    triggerTaskReadyIndex.addDispatched(taskList);
+                } else {
+                    triggerTaskReadyIndex.add(taskList);
+                }
+            } catch (Exception e) {
+                // 索引写入失败由对账补齐
+                log.error("TriggerTask写入就绪索引失败, size: {}", taskList.size(), e);
             }
         }
-        return result.toString();
+        if (triggerTaskProperties.isDispatchAfterCommit()) {
+            dispatch(taskList);
+        }
+    }
+
+    private void dispatch(List<T> taskList) {
+        Class<?> entityClass = taskList.get(0).getClass();
+        try {
+            triggerTaskExecutorProvider.orderedStream()
+                    .filter(executor -> executor.getEntityClass().isAssignableFrom(entityClass))
+                    .findFirst()
+                    .ifPresent(executor -> executor.execImmediately(taskList));
+        } catch (Exception e) {
+            // 事务已提交，这里失败不影响业务，任务由定时扫描兜底
+            log.error("TriggerTask提交执行失败, size: {}", taskList.size(), e);
+        }
+    }
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
     }
 
 }
@@ -0,0 +1,117 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.config.TriggerTaskProperties;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * @ClassName TriggerTaskTableRouter
+ * @Description 任务表路由。按任务类型把任务保存到单独的表，或分散到多张分表，没有配置路由的任务类型保存在trigger_task表。
+ * 分表时优先按dedupKey的哈希值选表，没有dedupKey时才按lockKey，因此lockKey相同、dedupKey不同的任务可能落在不同的分表；
+ * 同一lockKey的串行执行由分布式锁保证，不依赖落在同一张表。
+ * 开启路由后任务id由{@link TriggerTaskStorage}统一分配，所有表的id不重复，执行器按id处理任务时不需要区分表。
+ * id按实例预取号段分配，不同实例保存的任务之间id顺序不代表保存顺序
+ * @Author Robod
+ * @Date 2025/01/29 10:00
+ */
+public class TriggerTaskTableRouter {
+
+    public static final String DEFAULT_TABLE = "trigger_task";
+
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+
+    @Resource
+    private TriggerTaskProperties triggerTaskProperties;
+
+    /**
+     * 所有任务表，trigger_task排在第一个
+     */
+    private List<String> tables;
+
+    @PostConstruct
+    public void init() {
+        Set<String> tableSet = new LinkedHashSet<>();
+        tableSet.add(DEFAULT_TABLE);
+        for (Map.Entry<String, TriggerTaskProperties.Route> entry : triggerTaskProperties.getRouting().getTaskTypes().entrySet()) {
+            TriggerTaskProperties.Route route = entry.getValue();
+            if (route.getTable() == null || !TABLE_NAME_PATTERN.matcher(route.getTable()).matches()) {
+                throw new IllegalArgumentException("trigger-task.routing.task-types." + entry.getKey() + ".table不合法: " + route.getTable());
+            }
+            tableSet.addAll(tablesOf(entry.getKey()));
+        }
+        tables = Collections.unmodifiableList(new ArrayList<>(tableSet));
+    }
+
+    public boolean isEnabled() {
+        return tables.size() > 1;
+    }
+
+    public List<String> getTables() {
+        return tables;
+    }
+
+    /**
+     * 任务类型的任务可能保存到的表
+     */
+    public List<String> tablesOf(String taskType) {
+        TriggerTaskProperties.Route route = triggerTaskProperties.getRouting().getTaskTypes().get(taskType);
+        if (route == null) {
+            return Collections.singletonList(DEFAULT_TABLE);
+        }
+        if (route.getShards() <= 1) {
+            return Collections.singletonList(route.getTable());
+        }
+        List<String> result = new ArrayList<>(route.getShards());
+        for (int i = 0; i < route.getShards(); i++) {
+            result.add(route.getTable() + "_" + i);
+        }
+        return result;
+    }
+
+    /**
+     * 任务应保存到的表。分表时按dedupKey的哈希值选择，保证相同dedupKey的任务落在同一张表、唯一索引能生效；
+     * 没有dedupKey时同一lockKey的任务落在同一张表，都为空时随机选择
+     */
+    public String route(TriggerTaskBaseEntity task) {
+        TriggerTaskProperties.Route route = triggerTaskProperties.getRouting().getTaskTypes().get(task.getTaskType());
+        if (route == null) {
+            return DEFAULT_TABLE;
+        }
+        if (route.getShards() <= 1) {
+            return route.getTable();
+        }
+        String shardKey = task.getDedupKey() != null && !task.getDedupKey().isEmpty() ? task.getDedupKey() : task.getLockKey();
+        int hash = shardKey != null && !shardKey.isEmpty() ? shardKey.hashCode() : ThreadLocalRandom.current().nextInt();
+        return route.getTable() + "_" + Math.floorMod(hash, route.getShards());
+    }
+
+    /**
+     * 任务所在的表，从数据库加载或保存时记录，没有记录时为trigger_task
+     */
+    public String tableOf(TriggerTaskBaseEntity task) {
+        return task.getTableName() != null ? task.getTableName() : DEFAULT_TABLE;
+    }
+
+    /**
+     * 按所在的表分组，保持原有顺序
+     */
+    public <T extends TriggerTaskBaseEntity> Map<String, List<T>> groupByTable(List<T> taskList) {
+        Map<String, List<T>> result = new LinkedHashMap<>();
+        for (T task : taskList) {
+            result.computeIfAbsent(tableOf(task), k -> new ArrayList<>()).add(task);
+        }
+        return result;
+    }
+
+}
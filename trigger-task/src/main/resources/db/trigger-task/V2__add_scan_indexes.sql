@@ -0,0 +1,2 @@
+-- 扫描、时间轮加载、就绪索引对账都按(task_status, trigger_time, id)游标分页，扫描代价只与到期的任务数有关，与表大小无关
+ALTER TABLE `trigger_task` ADD INDEX `idx_status_trigger_time` (`task_status`, `trigger_time`, `id`);
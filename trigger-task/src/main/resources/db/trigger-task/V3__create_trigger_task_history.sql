@@ -0,0 +1,2 @@
+-- 归档表，开启trigger-task.purge.archive-enabled时使用。表结构需与trigger_task保持一致，trigger_task加列时同步加列
+CREATE TABLE IF NOT EXISTS `trigger_task_history` LIKE `trigger_task`;
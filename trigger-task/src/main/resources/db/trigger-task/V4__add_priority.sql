@@ -0,0 +1,4 @@
+-- 任务优先级，数值越大越优先。开启trigger-task.priority.enabled后按(task_status, priority, trigger_time, id)逐个优先级扫描
+ALTER TABLE `trigger_task` ADD COLUMN `priority` tinyint(4) NOT NULL DEFAULT '0' COMMENT '优先级 数值越大越优先',
+    ADD INDEX `idx_status_priority_trigger_time` (`task_status`, `priority`, `trigger_time`, `id`);
+ALTER TABLE `trigger_task_history` ADD COLUMN `priority` tinyint(4) NOT NULL DEFAULT '0' COMMENT '优先级 数值越大越优先';
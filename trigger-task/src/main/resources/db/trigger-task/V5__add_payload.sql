@@ -0,0 +1,3 @@
+-- 二进制参数，按TriggerTaskPayloadCodec编码，默认为fastjson2 JSONB，超过压缩阈值时gzip压缩
+ALTER TABLE `trigger_task` ADD COLUMN `payload` mediumblob DEFAULT NULL COMMENT '二进制参数';
+ALTER TABLE `trigger_task_history` ADD COLUMN `payload` mediumblob DEFAULT NULL COMMENT '二进制参数';
@@ -0,0 +1,4 @@
+-- 合并key，同一任务类型下相同key的未结束任务最多只有一个。任务结束后清空，唯一索引不限制已结束的任务
+ALTER TABLE `trigger_task` ADD COLUMN `dedup_key` varchar(128) DEFAULT NULL COMMENT '合并key',
+    ADD UNIQUE INDEX `uk_task_type_dedup_key` (`task_type`, `dedup_key`);
+ALTER TABLE `trigger_task_history` ADD COLUMN `dedup_key` varchar(128) DEFAULT NULL COMMENT '合并key';
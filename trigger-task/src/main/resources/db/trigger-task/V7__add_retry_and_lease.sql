@@ -0,0 +1,9 @@
+-- 失败重试时间和认领模式的租约。扫描条件带有next_retry_time，加到扫描索引末尾后等待重试的任务在索引上就被过滤，不用回表
+ALTER TABLE `trigger_task` ADD COLUMN `next_retry_time` datetime DEFAULT NULL COMMENT '下次重试时间' AFTER `fail_count`,
+    ADD COLUMN `lease_owner` varchar(128) DEFAULT NULL COMMENT '认领模式下的租约持有者',
+    ADD COLUMN `lease_expire_time` datetime DEFAULT NULL COMMENT '认领模式下的租约到期时间',
+    DROP INDEX `idx_status_trigger_time`,
+    ADD INDEX `idx_status_trigger_time` (`task_status`, `trigger_time`, `id`, `next_retry_time`);
+ALTER TABLE `trigger_task_history` ADD COLUMN `next_retry_time` datetime DEFAULT NULL COMMENT '下次重试时间' AFTER `fail_count`,
+    ADD COLUMN `lease_owner` varchar(128) DEFAULT NULL COMMENT '认领模式下的租约持有者',
+    ADD COLUMN `lease_expire_time` datetime DEFAULT NULL COMMENT '认领模式下的租约到期时间';
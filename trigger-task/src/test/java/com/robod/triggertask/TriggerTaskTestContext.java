@@ -0,0 +1,193 @@
+package com.robod.triggertask;
+
+import com.robod.triggertask.config.TriggerTaskAutoConfiguration;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.executor.TriggerTaskExecutor;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * @ClassName TriggerTaskTestContext
+ * @Description 集成测试用的Spring容器：H2内存库 + 只支持分布式锁的RedissonClient替身 + TriggerTask自动配置。
+ * 默认每次创建使用独立的数据库，指定trigger-task-test.datasource.url为另一个容器的{@link #getDatasourceUrl()}时共享数据库和分布式锁，模拟多个实例
+ * @Author Robod
+ * @Date 2025/02/12 10:00
+ */
+public final class TriggerTaskTestContext implements AutoCloseable {
+
+    private static final AtomicInteger DATABASE_INDEX = new AtomicInteger();
+
+    /**
+     * 数据库url -> 分布式锁，同一个数据库上的多个实例共享
+     */
+    private static final Map<String, Map<String, RLock>> LOCKS = new ConcurrentHashMap<>();
+
+    private final AnnotationConfigApplicationContext applicationContext;
+
+    private TriggerTaskTestContext(AnnotationConfigApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * @param properties trigger-task等配置项
+     * @param handlers   任务类型 -> 处理器
+     */
+    @SuppressWarnings("unchecked")
+    public static TriggerTaskTestContext start(Map<String, Object> properties, Map<String, ?> handlers) {
+        Map<String, Object> source = new HashMap<>(properties);
+        source.putIfAbsent("spring.application.name", "trigger-task-test");
+        source.putIfAbsent("trigger-task-test.datasource.url", "jdbc:h2:mem:trigger_task_test_" + DATABASE_INDEX.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        AnnotationConfigApplicationContext applicationContext = new AnnotationConfigApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource("trigger-task-test", source));
+        applicationContext.register(InfrastructureConfiguration.class);
+        handlers.forEach((name, bean) -> applicationContext.registerBean(name, (Class<Object>) bean.getClass(), () -> bean));
+        applicationContext.refresh();
+        return new TriggerTaskTestContext(applicationContext);
+    }
+
+    public <B> B getBean(Class<B> type) {
+        return applicationContext.getBean(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    public TriggerTaskExecutor<TriggerTaskBaseEntity> getExecutor() {
+        return getBean(TriggerTaskExecutor.class);
+    }
+
+    public JdbcTemplate getJdbcTemplate() {
+        return getBean(JdbcTemplate.class);
+    }
+
+    public String getDatasourceUrl() {
+        return applicationContext.getEnvironment().getRequiredProperty("trigger-task-test.datasource.url");
+    }
+
+    /**
+     * 等到条件满足，超时后抛出AssertionError
+     */
+    public static void await(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待超时");
+            }
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+    }
+
+    @Override
+    public void close() {
+        applicationContext.close();
+    }
+
+    @Configuration
+    @Import(TriggerTaskAutoConfiguration.class)
+    static class InfrastructureConfiguration {
+
+        @Bean
+        public DataSource dataSource(Environment environment) {
+            DriverManagerDataSource dataSource = new DriverManagerDataSource(environment.getRequiredProperty("trigger-task-test.datasource.url"), "sa", "");
+            new ResourceDatabasePopulator(new ClassPathResource("schema-h2.sql")).execute(dataSource);
+            return dataSource;
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        public DataSourceTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(DataSourceTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public RedissonClient redissonClient(Environment environment) {
+            Map<String, RLock> locks = LOCKS.computeIfAbsent(environment.getRequiredProperty("trigger-task-test.datasource.url"), url -> new ConcurrentHashMap<>());
+            return (RedissonClient) Proxy.newProxyInstance(RedissonClient.class.getClassLoader(), new Class<?>[]{RedissonClient.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getLock":
+                        return locks.computeIfAbsent((String) args[0], InfrastructureConfiguration::createLock);
+                    case "shutdown":
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "TriggerTaskTestRedissonClient";
+                    default:
+                        throw new UnsupportedOperationException("测试用RedissonClient不支持: " + method.getName());
+                }
+            });
+        }
+
+        @Bean
+        public TriggerTaskExecutor<TriggerTaskBaseEntity> triggerTaskExecutor() {
+            return new TriggerTaskExecutor<>(TriggerTaskBaseEntity.class);
+        }
+
+        /**
+         * 用ReentrantLock代替分布式锁，租约时间参数被忽略
+         */
+        private static RLock createLock(String name) {
+            ReentrantLock lock = new ReentrantLock();
+            return (RLock) Proxy.newProxyInstance(RLock.class.getClassLoader(), new Class<?>[]{RLock.class}, (proxy, method, args) -> {
+                int argCount = args == null ? 0 : args.length;
+                switch (method.getName()) {
+                    case "tryLock":
+                        return argCount == 0 ? lock.tryLock() : lock.tryLock((Long) args[0], (TimeUnit) args[argCount - 1]);
+                    case "lock":
+                        lock.lock();
+                        return null;
+                    case "unlock":
+                        lock.unlock();
+                        return null;
+                    case "isLocked":
+                        return lock.isLocked();
+                    case "isHeldByCurrentThread":
+                        return lock.isHeldByCurrentThread();
+                    case "getName":
+                    case "toString":
+                        return name;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException("测试用分布式锁不支持: " + method.getName());
+                }
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.robod.triggertask.executor;
+
+import com.robod.triggertask.TriggerTaskTestContext;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import com.robod.triggertask.handler.TriggerTaskHandler;
+import com.robod.triggertask.storage.TriggerTaskStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @ClassName TriggerTaskClaimIntegrationTest
+ * @Description 认领模式集成测试：多实例认领互不相交、执行期间租约被重新认领时回滚、失败后释放租约
+ * @Author Robod
+ * @Date 2025/02/12 10:00
+ */
+class TriggerTaskClaimIntegrationTest {
+
+    private static final String TASK_TYPE = "claim-test";
+
+    private final List<TriggerTaskTestContext> contexts = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        contexts.forEach(TriggerTaskTestContext::close);
+    }
+
+    @Test
+    void twoInstancesExecuteEachTaskOnce() throws Exception {
+        Map<Long, AtomicInteger> executions = new ConcurrentHashMap<>();
+        TriggerTaskTestContext first = start(null, task -> afterCommit(() -> executions.computeIfAbsent(task.getId(), id -> new AtomicInteger()).incrementAndGet()));
+        TriggerTaskTestContext second = start(first.getDatasourceUrl(), task -> afterCommit(() -> executions.computeIfAbsent(task.getId(), id -> new AtomicInteger()).incrementAndGet()));
+
+        int tasks = 200;
+        List<TriggerTaskBaseEntity> taskList = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            taskList.add(newTask());
+        }
+        storage(first).saveBatch(taskList);
+
+        TriggerTaskTestContext.await(() -> {
+            CompletableFuture.allOf(CompletableFuture.runAsync(first.getExecutor()::timeExec), CompletableFuture.runAsync(second.getExecutor()::timeExec)).join();
+            return countByStatus(first.getJdbcTemplate(), TriggerTaskStatusEnum.END) == tasks;
+        }, 30000);
+
+        TriggerTaskTestContext.await(() -> executions.size() == tasks, 5000);
+        assertThat(executions.values()).allMatch(count -> count.get() == 1);
+    }
+
+    @Test
+    void leaseLostDuringExecutionRollsBack() throws Exception {
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicInteger completionStatus = new AtomicInteger(-1);
+        TriggerTaskTestContext[] holder = new TriggerTaskTestContext[1];
+        holder[0] = start(null, task -> {
+            JdbcTemplate jdbcTemplate = holder[0].getJdbcTemplate();
+            // 模拟租约到期后被其他实例重新认领，在另一个连接上提交
+            CompletableFuture.runAsync(() -> jdbcTemplate.update("update trigger_task set lease_owner = ?, lease_expire_time = ? where id = ?",
+                    "other-instance", LocalDateTime.now().plusMinutes(10), task.getId())).join();
+            jdbcTemplate.update("update trigger_task set remark = ? where id = ?", "handled", task.getId());
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    completionStatus.set(status);
+                    completed.countDown();
+                }
+            });
+        });
+        TriggerTaskTestContext context = holder[0];
+
+        TriggerTaskBaseEntity task = newTask();
+        storage(context).save(task);
+        context.getExecutor().timeExec();
+
+        assertThat(completed.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(completionStatus.get()).isEqualTo(TransactionSynchronization.STATUS_ROLLED_BACK);
+        Map<String, Object> row = context.getJdbcTemplate().queryForMap("select task_status, remark, lease_owner, fail_count from trigger_task where id = ?", task.getId());
+        assertThat(((Number) row.get("task_status")).intValue()).isEqualTo(TriggerTaskStatusEnum.NOT_END.getStatus());
+        assertThat(row.get("remark")).isNotEqualTo("handled");
+        assertThat(row.get("lease_owner")).isEqualTo("other-instance");
+        assertThat(((Number) row.get("fail_count")).intValue()).isZero();
+    }
+
+    @Test
+    void failedTaskReleasesLease() throws Exception {
+        TriggerTaskTestContext context = start(null, task -> {
+            throw new IllegalStateException("模拟执行失败");
+        });
+
+        TriggerTaskBaseEntity task = newTask();
+        storage(context).save(task);
+        context.getExecutor().timeExec();
+
+        JdbcTemplate jdbcTemplate = context.getJdbcTemplate();
+        TriggerTaskTestContext.await(() -> jdbcTemplate.queryForObject("select fail_count from trigger_task where id = ?", Integer.class, task.getId()) == 1, 10000);
+        Map<String, Object> row = jdbcTemplate.queryForMap("select task_status, lease_owner, lease_expire_time, next_retry_time from trigger_task where id = ?", task.getId());
+        assertThat(((Number) row.get("task_status")).intValue()).isEqualTo(TriggerTaskStatusEnum.NOT_END.getStatus());
+        assertThat(row.get("lease_owner")).isNull();
+        assertThat(row.get("lease_expire_time")).isNull();
+        assertThat(row.get("next_retry_time")).isNotNull();
+    }
+
+    private TriggerTaskTestContext start(String datasourceUrl, Consumer<TriggerTaskBaseEntity> handler) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("trigger-task.claim.enabled", true);
+        if (datasourceUrl != null) {
+            properties.put("trigger-task-test.datasource.url", datasourceUrl);
+        }
+        TriggerTaskHandler<TriggerTaskBaseEntity> triggerTaskHandler = handler::accept;
+        TriggerTaskTestContext context = TriggerTaskTestContext.start(properties, Collections.singletonMap(TASK_TYPE, triggerTaskHandler));
+        contexts.add(context);
+        return context;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static TriggerTaskStorage<TriggerTaskBaseEntity> storage(TriggerTaskTestContext context) {
+        return context.getBean(TriggerTaskStorage.class);
+    }
+
+    private static TriggerTaskBaseEntity newTask() {
+        TriggerTaskBaseEntity task = new TriggerTaskBaseEntity();
+        task.setTaskType(TASK_TYPE);
+        return task;
+    }
+
+    private static long countByStatus(JdbcTemplate jdbcTemplate, TriggerTaskStatusEnum status) {
+        Long count = jdbcTemplate.queryForObject("select count(*) from trigger_task where task_status = ?", Long.class, status.getStatus());
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * 处理器所在的事务提交后才算执行了一次
+     */
+    private static void afterCommit(Runnable runnable) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runnable.run();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.robod.triggertask.storage;
+
+import com.robod.triggertask.TriggerTaskTestContext;
+import com.robod.triggertask.entity.TriggerTaskBaseEntity;
+import com.robod.triggertask.entity.TriggerTaskStatusEnum;
+import com.robod.triggertask.handler.TriggerTaskHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @ClassName TriggerTaskStorageDedupIntegrationTest
+ * @Description 按dedupKey合并任务的集成测试：保留最新、保留最早、任务结束后可再次保存、并发保存只留一个未结束任务
+ * @Author Robod
+ * @Date 2025/02/12 10:00
+ */
+class TriggerTaskStorageDedupIntegrationTest {
+
+    private static final String LATEST_WINS = "dedup-latest";
+
+    private static final String FIRST_WINS = "dedup-first";
+
+    private TriggerTaskTestContext context;
+
+    private TriggerTaskStorage<TriggerTaskBaseEntity> storage;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("trigger-task.dedup.task-types." + LATEST_WINS, "LATEST_WINS");
+        properties.put("trigger-task.dedup.task-types." + FIRST_WINS, "FIRST_WINS");
+        TriggerTaskHandler<TriggerTaskBaseEntity> noop = task -> {
+        };
+        Map<String, Object> handlers = new HashMap<>();
+        handlers.put(LATEST_WINS, noop);
+        handlers.put(FIRST_WINS, noop);
+        context = TriggerTaskTestContext.start(properties, handlers);
+        storage = context.getBean(TriggerTaskStorage.class);
+        jdbcTemplate = context.getJdbcTemplate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        context.close();
+    }
+
+    @Test
+    void latestWinsEndsPreviousTask() {
+        TriggerTaskBaseEntity previous = newTask(LATEST_WINS, "order-1");
+        storage.save(previous);
+        TriggerTaskBaseEntity latest = newTask(LATEST_WINS, "order-1");
+        storage.save(latest);
+
+        assertThat(latest.getId()).isNotNull();
+        assertThat(statusOf(previous.getId())).isEqualTo(TriggerTaskStatusEnum.END.getStatus());
+        assertThat(dedupKeyOf(previous.getId())).isNull();
+        assertThat(statusOf(latest.getId())).isEqualTo(TriggerTaskStatusEnum.NOT_END.getStatus());
+        assertThat(dedupKeyOf(latest.getId())).isEqualTo("order-1");
+    }
+
+    @Test
+    void firstWinsDropsNewTask() {
+        TriggerTaskBaseEntity first = newTask(FIRST_WINS, "order-1");
+        storage.save(first);
+        TriggerTaskBaseEntity dropped = newTask(FIRST_WINS, "order-1");
+        storage.save(dropped);
+
+        assertThat(dropped.getId()).isNull();
+        assertThat(countPending(FIRST_WINS, "order-1")).isEqualTo(1L);
+        assertThat(statusOf(first.getId())).isEqualTo(TriggerTaskStatusEnum.NOT_END.getStatus());
+    }
+
+    @Test
+    void sameKeyCanBeSavedAgainAfterTaskEnds() throws Exception {
+        TriggerTaskBaseEntity first = newTask(FIRST_WINS, "order-1");
+        storage.save(first);
+        context.getExecutor().timeExec();
+        TriggerTaskTestContext.await(() -> statusOf(first.getId()) == TriggerTaskStatusEnum.END.getStatus(), 10000);
+
+        TriggerTaskBaseEntity next = newTask(FIRST_WINS, "order-1");
+        storage.save(next);
+
+        assertThat(next.getId()).isNotNull();
+        assertThat(countPending(FIRST_WINS, "order-1")).isEqualTo(1L);
+    }
+
+    @Test
+    void concurrentLatestWinsSavesLeaveOnePendingTask() {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                storage.save(newTask(LATEST_WINS, "order-1"));
+            }));
+        }
+        start.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        assertThat(countPending(LATEST_WINS, "order-1")).isEqualTo(1L);
+    }
+
+    private static TriggerTaskBaseEntity newTask(String taskType, String dedupKey) {
+        TriggerTaskBaseEntity task = new TriggerTaskBaseEntity();
+        task.setTaskType(taskType);
+        task.setDedupKey(dedupKey);
+        return task;
+    }
+
+    private int statusOf(Long id) {
+        Integer status = jdbcTemplate.queryForObject("select task_status from trigger_task where id = ?", Integer.class, id);
+        return status == null ? -1 : status;
+    }
+
+    private String dedupKeyOf(Long id) {
+        return jdbcTemplate.queryForObject("select dedup_key from trigger_task where id = ?", String.class, id);
+    }
+
+    private long countPending(String taskType, String dedupKey) {
+        Long count = jdbcTemplate.queryForObject("select count(*) from trigger_task where task_type = ? and dedup_key = ? and task_status = ?", Long.class,
+                taskType, dedupKey, TriggerTaskStatusEnum.NOT_END.getStatus());
+        return count == null ? 0L : count;
+    }
+
+}